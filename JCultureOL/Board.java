@@ -0,0 +1,482 @@
+package JCultureOL;
+
+import java.util.Arrays;
+
+/**
+ * primitive storage for a square game board, every cell is identified by the index <code>y*size+x</code>
+ * <p>
+ * a board is either flat, with every cell in arrays indexed by cell, or sparse, with cells kept in chunks of {@link Board#CHUNK} by {@link Board#CHUNK} that are only allocated on the first write to one of their cells. a cell of a chunk that was never written reads as unowned with a value of 1, so a sparse board takes memory for the area in play rather than for its size. boards wider than {@link Board#SPARSE_SIZE} are sparse unless asked otherwise
+ */
+final class Board {
+    static final int SPARSE_SIZE = 2048;
+    private static final int CHUNK_BITS = 6;
+    static final int CHUNK = 1 << CHUNK_BITS; // width and height of a chunk
+    private static final int CHUNK_MASK = CHUNK - 1;
+
+    final int size;
+    final int cells;
+    final short[] teams; // flat storage, null on a sparse board, read directly only by engines that need a flat board
+    final byte[] values;
+    final byte[] capacity; // highest value each cell can hold before it topples, precomputed from the edge and corner rules
+    private final Chunk[] chunks; // sparse storage by chunk row then chunk column, null on a flat board
+    private final int chunkColumns;
+    private int chunkCount;
+    private int[] owned = new int[8]; // number of cells held by each team, index 0 counts unowned cells
+    private final long[] touched; // one bit per cell changed by the current move, cleared through the changed list, kept per chunk on a sparse board
+    private int[] changed = new int[64];
+    private int changedCount;
+    long hash; // zobrist hash of the position, kept up to date by the topple engines, see {@link Zobrist}
+
+    /**
+     * the cells of one square of a sparse board, indexed by <code>(y%CHUNK)*CHUNK+x%CHUNK</code>
+     */
+    private static final class Chunk {
+        final short[] teams = new short[CHUNK * CHUNK];
+        final byte[] values = new byte[CHUNK * CHUNK];
+        final long[] touched = new long[CHUNK * CHUNK / 64];
+
+        Chunk() {
+            Arrays.fill(values, (byte)1);
+        }
+        Chunk(Chunk other) {
+            System.arraycopy(other.teams, 0, teams, 0, teams.length);
+            System.arraycopy(other.values, 0, values, 0, values.length);
+        }
+    }
+
+    /**
+     * creates a board where every cell is unowned with a value of 1, sparse if it is wider than {@link Board#SPARSE_SIZE}
+     * @param size width and height of the board
+     */
+    Board(int size) {
+        this(size, size > SPARSE_SIZE);
+    }
+    /**
+     * creates a board where every cell is unowned with a value of 1
+     * @param size width and height of the board
+     * @param sparse whether to keep the cells in chunks allocated as they are written
+     */
+    Board(int size, boolean sparse) {
+        if (size < 1 || size > 46340) {
+            throw new IllegalArgumentException("board size must be between 1 and 46340");
+        }
+        this.size = size;
+        this.cells = size * size;
+        owned[0] = cells;
+        if (sparse) {
+            this.teams = null;
+            this.values = null;
+            this.capacity = null;
+            this.touched = null;
+            this.chunkColumns = (size + CHUNK_MASK) >> CHUNK_BITS;
+            this.chunks = new Chunk[chunkColumns * chunkColumns];
+            return;
+        }
+        this.chunks = null;
+        this.chunkColumns = 0;
+        this.teams = new short[cells];
+        this.values = new byte[cells];
+        this.capacity = new byte[cells];
+        this.touched = new long[(cells + 63) >>> 6];
+        Arrays.fill(values, (byte)1);
+        for (int y = 0; y < size; y ++) {
+            for (int x = 0; x < size; x ++) {
+                capacity[y * size + x] = (byte)edgeCapacity(x, y);
+            }
+        }
+    }
+    private Board(Board other) {
+        this.size = other.size;
+        this.cells = other.cells;
+        this.teams = other.teams == null ? null : other.teams.clone();
+        this.values = other.values == null ? null : other.values.clone();
+        this.capacity = other.capacity; // never written after construction, so it can be shared
+        this.touched = other.touched == null ? null : new long[other.touched.length];
+        this.chunkColumns = other.chunkColumns;
+        this.chunks = other.chunks == null ? null : new Chunk[other.chunks.length];
+        if (chunks != null) {
+            for (int c = 0; c < chunks.length; c ++) {
+                if (other.chunks[c] != null) {
+                    chunks[c] = new Chunk(other.chunks[c]);
+                }
+            }
+            this.chunkCount = other.chunkCount;
+        }
+        this.owned = other.owned.clone();
+        this.hash = other.hash;
+    }
+    /**
+     * @return an independent copy of the board, the list of cells changed by the last move is not copied
+     */
+    Board copy() {
+        return new Board(this);
+    }
+    /**
+     * makes this board a copy of another of the same size and storage, without allocating on a flat board, the list of changed cells is cleared
+     * @param other board to copy
+     */
+    void copyFrom(Board other) {
+        if (other.size != size || other.sparse() != sparse()) {
+            throw new IllegalArgumentException("boards differ in size or storage");
+        }
+        beginMove();
+        if (chunks == null) {
+            System.arraycopy(other.teams, 0, teams, 0, cells);
+            System.arraycopy(other.values, 0, values, 0, cells);
+        } else {
+            for (int c = 0; c < chunks.length; c ++) {
+                Chunk from = other.chunks[c];
+                if (from == null) {
+                    chunks[c] = null;
+                } else if (chunks[c] == null) {
+                    chunks[c] = new Chunk(from);
+                } else {
+                    System.arraycopy(from.teams, 0, chunks[c].teams, 0, from.teams.length);
+                    System.arraycopy(from.values, 0, chunks[c].values, 0, from.values.length);
+                }
+            }
+            chunkCount = other.chunkCount;
+        }
+        if (owned.length != other.owned.length) {
+            owned = new int[other.owned.length];
+        }
+        System.arraycopy(other.owned, 0, owned, 0, owned.length);
+        hash = other.hash;
+    }
+    /**
+     * puts every cell back to unowned with a value of 1, as a new board starts. a sparse board drops all of its chunks
+     */
+    void reset() {
+        beginMove();
+        if (chunks == null) {
+            Arrays.fill(teams, (short)0);
+            Arrays.fill(values, (byte)1);
+        } else {
+            Arrays.fill(chunks, null);
+            chunkCount = 0;
+        }
+        Arrays.fill(owned, 0);
+        owned[0] = cells;
+        hash = 0;
+    }
+    /**
+     * rebuilds the per team cell counts and the hash after cells were written through {@link Board#fill(int, int, int, int)}, such as by {@link Snapshot#decode(byte[], Board)}
+     */
+    void recount() {
+        Arrays.fill(owned, 0);
+        for (int i = 0; i < cells; ) {
+            int run = blank(i);
+            if (run > 0) {
+                owned[0] += run;
+                i += run;
+                continue;
+            }
+            int t = team(i);
+            reserveTeam(t);
+            owned[t] ++;
+            i ++;
+        }
+        hash = Zobrist.of(this);
+        beginMove();
+    }
+    /**
+     * @return true if the cells are kept in chunks allocated as they are written
+     */
+    boolean sparse() {
+        return chunks != null;
+    }
+    /**
+     * @return the number of cells storage is allocated for, every cell on a flat board
+     */
+    long storedCells() {
+        return chunks == null ? cells : (long)chunkCount * CHUNK * CHUNK;
+    }
+    int index(int x, int y) {
+        return y * size + x;
+    }
+    boolean inBounds(int x, int y) {
+        return y >= 0 && y < size && x >= 0 && x < size;
+    }
+    int team(int x, int y) {
+        return team(y * size + x);
+    }
+    int value(int x, int y) {
+        return value(y * size + x);
+    }
+    /**
+     * @param i cell index
+     * @return the owner of the cell, 0 if unowned
+     */
+    int team(int i) {
+        if (chunks == null) {
+            return teams[i];
+        }
+        int y = i / size;
+        int x = i - y * size;
+        Chunk c = chunks[chunk(x, y)];
+        return c == null ? 0 : c.teams[offset(x, y)];
+    }
+    /**
+     * @param i cell index
+     * @return the value the cell holds
+     */
+    int value(int i) {
+        if (chunks == null) {
+            return values[i];
+        }
+        int y = i / size;
+        int x = i - y * size;
+        Chunk c = chunks[chunk(x, y)];
+        return c == null ? 1 : c.values[offset(x, y)];
+    }
+    /**
+     * changes the value of a cell without touching the hash, which is up to the caller
+     * @param i cell index
+     * @param value new value
+     */
+    void setValue(int i, int value) {
+        if (chunks == null) {
+            values[i] = (byte)value;
+            return;
+        }
+        int y = i / size;
+        int x = i - y * size;
+        Chunk c = chunk(x, y, value != 1);
+        if (c != null) {
+            c.values[offset(x, y)] = (byte)value;
+        }
+    }
+    /**
+     * @param i cell index
+     * @return the highest value the cell can hold before it topples
+     */
+    int capacity(int i) {
+        if (chunks == null) {
+            return capacity[i];
+        }
+        int y = i / size;
+        return edgeCapacity(i - y * size, y);
+    }
+    /**
+     * @return 4 less one for each edge of the board the cell lies on
+     */
+    private int edgeCapacity(int x, int y) {
+        int maxval = 4;
+        if (x == 0 || x == size - 1) {
+            maxval --;
+        }
+        if (y == 0 || y == size - 1) {
+            maxval --;
+        }
+        return maxval;
+    }
+    /**
+     * changes the owner of a cell, keeping the per team cell counts up to date
+     * @param i cell index
+     * @param team new owner
+     */
+    void setTeam(int i, int team) {
+        if (chunks == null) {
+            int old = teams[i];
+            if (old != team) {
+                reserveTeam(team);
+                owned[old] --;
+                owned[team] ++;
+                teams[i] = (short)team;
+            }
+            return;
+        }
+        int y = i / size;
+        int x = i - y * size;
+        Chunk c = chunk(x, y, team != 0);
+        int old = c == null ? 0 : c.teams[offset(x, y)];
+        if (old != team) {
+            reserveTeam(team);
+            owned[old] --;
+            owned[team] ++;
+            c.teams[offset(x, y)] = (short)team;
+        }
+    }
+    /**
+     * writes n consecutive cells in index order without keeping the counts or the hash, for code that calls {@link Board#recount()} after. unowned ones holding 1 written to a sparse board allocate nothing
+     * @param i index of the first cell
+     * @param n number of cells
+     * @param team owner of every cell
+     * @param value value of every cell
+     */
+    void fill(int i, int n, int team, int value) {
+        if (chunks == null) {
+            Arrays.fill(teams, i, i + n, (short)team);
+            Arrays.fill(values, i, i + n, (byte)value);
+            return;
+        }
+        boolean blank = team == 0 && value == 1;
+        for (int end = i + n; i < end; ) {
+            int y = i / size;
+            int x = i - y * size;
+            int run = Math.min(end - i, Math.min(CHUNK - (x & CHUNK_MASK), size - x)); // rest of the row within the chunk
+            Chunk c = chunk(x, y, !blank);
+            if (c != null) {
+                int o = offset(x, y);
+                Arrays.fill(c.teams, o, o + run, (short)team);
+                Arrays.fill(c.values, o, o + run, (byte)value);
+            }
+            i += run;
+        }
+    }
+    /**
+     * @param i cell index
+     * @return the number of cells from i along its row that lie in a chunk that was never written and so are unowned holding 1, 0 on a flat board. lets whole board scans skip the empty parts of a sparse board
+     */
+    int blank(int i) {
+        if (chunks == null) {
+            return 0;
+        }
+        int y = i / size;
+        int x = i - y * size;
+        if (chunks[chunk(x, y)] != null) {
+            return 0;
+        }
+        return Math.min(CHUNK - (x & CHUNK_MASK), size - x);
+    }
+    private int chunk(int x, int y) {
+        return (y >> CHUNK_BITS) * chunkColumns + (x >> CHUNK_BITS);
+    }
+    private static int offset(int x, int y) {
+        return (y & CHUNK_MASK) << CHUNK_BITS | (x & CHUNK_MASK);
+    }
+    /**
+     * @param create whether to allocate the chunk if it is missing
+     * @return the chunk holding a cell, null if it is missing and was not created
+     */
+    private Chunk chunk(int x, int y, boolean create) {
+        int k = chunk(x, y);
+        Chunk c = chunks[k];
+        if (c == null && create) {
+            c = chunks[k] = new Chunk();
+            chunkCount ++;
+        }
+        return c;
+    }
+    /**
+     * moves whole batches of cells to a team, used by engines that change owners without going through {@link Board#setTeam(int, int)}
+     * @param lost number of cells each team gave up, indexed by team
+     * @param team team that gained the cells
+     * @param gained total number of cells gained
+     */
+    void transfer(int[] lost, int team, int gained) {
+        reserveTeam(team);
+        for (int t = 0; t < lost.length; t ++) {
+            owned[t] -= lost[t];
+        }
+        owned[team] += gained;
+    }
+    /**
+     * @return one more than the highest team the per team cell counts currently have room for
+     */
+    int teamSlots() {
+        return owned.length;
+    }
+    void reserveTeam(int team) {
+        if (team >= owned.length) {
+            owned = Arrays.copyOf(owned, Math.max(team + 1, owned.length * 2));
+        }
+    }
+    /**
+     * @param team team to count
+     * @return the number of cells held by the team
+     */
+    int owned(int team) {
+        return team < owned.length ? owned[team] : 0;
+    }
+    /**
+     * @param team team to check
+     * @return true if every cell on the board belongs to the team
+     */
+    boolean ownsAll(int team) {
+        return owned(team) == cells;
+    }
+    /**
+     * forgets the cells changed by the previous move, called by topple engines before they change anything
+     */
+    void beginMove() {
+        for (int k = 0; k < changedCount; k ++) {
+            int i = changed[k];
+            if (chunks == null) {
+                touched[i >>> 6] &= ~(1L << i);
+                continue;
+            }
+            int y = i / size;
+            int x = i - y * size;
+            Chunk c = chunks[chunk(x, y)];
+            if (c != null) { // dropped by copyFrom or reset
+                int o = offset(x, y);
+                c.touched[o >>> 6] &= ~(1L << o);
+            }
+        }
+        changedCount = 0;
+    }
+    /**
+     * records that a cell changed during the current move, each cell is listed once. on a sparse board this allocates the cell's chunk, as a changed cell is about to be written anyway
+     * @param i cell index
+     */
+    void touch(int i) {
+        long[] bits = touched;
+        int o = i;
+        if (chunks != null) {
+            int y = i / size;
+            int x = i - y * size;
+            bits = chunk(x, y, true).touched;
+            o = offset(x, y);
+        }
+        long bit = 1L << o;
+        if ((bits[o >>> 6] & bit) == 0) {
+            bits[o >>> 6] |= bit;
+            if (changedCount == changed.length) {
+                changed = Arrays.copyOf(changed, changedCount * 2);
+            }
+            changed[changedCount++] = i;
+        }
+    }
+    /**
+     * appends cells to the changed list without checking for repeats, for engines that track changes themselves
+     * @param cells cell indices
+     * @param n number of indices to take from the start of the array
+     */
+    void addChanged(int[] cells, int n) {
+        if (changedCount + n > changed.length) {
+            changed = Arrays.copyOf(changed, Math.max(changedCount + n, changed.length * 2));
+        }
+        System.arraycopy(cells, 0, changed, changedCount, n);
+        changedCount += n;
+    }
+    /**
+     * @return the number of cells changed by the last move
+     */
+    int changedCount() {
+        return changedCount;
+    }
+    /**
+     * @return the indices of the cells changed by the last move
+     */
+    int[] copyChanged() {
+        return Arrays.copyOf(changed, changedCount);
+    }
+    /**
+     * @param k position in the changed list
+     * @return index of the k-th cell changed by the last move
+     */
+    int changed(int k) {
+        return changed[k];
+    }
+    /**
+     * @param i cell index
+     * @return true if the cell holds more than its capacity and must topple
+     */
+    boolean isFull(int i) {
+        if (chunks == null) {
+            return values[i] > capacity[i];
+        }
+        return value(i) > capacity(i);
+    }
+}
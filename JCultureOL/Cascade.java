@@ -0,0 +1,72 @@
+package JCultureOL;
+
+import java.util.Arrays;
+
+/**
+ * depth first topple engine for a {@link Board}, resolves moves using a reusable stack of packed cell indices so a move allocates nothing once the stack has grown to fit
+ */
+final class Cascade implements Toppler {
+    private final Board board;
+    private int[] stack = new int[64];
+    private int topples;
+
+    Cascade(Board board) {
+        this.board = board;
+    }
+    /**
+     * neighbours are visited top, left, right, bottom
+     * <p>
+     * the cascade stops as soon as the team owns every cell, without this a full board topples forever
+     */
+    @Override
+    public boolean run(int x, int y, int team) {
+        Board b = board;
+        int size = b.size;
+        int[] stk = stack;
+        int top = 0;
+        stk[top++] = b.index(x, y);
+        topples = 0;
+        long hash = b.hash;
+        b.beginMove();
+        while (top > 0) {
+            int i = stk[--top];
+            b.touch(i);
+            hash ^= Zobrist.key(i, b.team(i), b.value(i));
+            b.setTeam(i, team);
+            int value = b.value(i) + 1;
+            if (value > b.capacity(i)) {
+                value = 1;
+                topples ++;
+                if (top + 4 > stk.length) {
+                    stk = stack = Arrays.copyOf(stk, stk.length * 2);
+                }
+                int cy = i / size;
+                int cx = i - cy * size;
+                if (cy < size - 1) {
+                    stk[top++] = i + size;
+                }
+                if (cx < size - 1) {
+                    stk[top++] = i + 1;
+                }
+                if (cx > 0) {
+                    stk[top++] = i - 1;
+                }
+                if (cy > 0) {
+                    stk[top++] = i - size;
+                }
+            }
+            b.setValue(i, value);
+            hash ^= Zobrist.key(i, team, value);
+            if (b.ownsAll(team)) {
+                b.hash = hash;
+                return true;
+            }
+        }
+        b.hash = hash;
+        return false;
+    }
+    @Override
+    public int topples() {
+        return topples;
+    }
+}
@@ -0,0 +1,5 @@
+package JCultureOL;
+
+interface Color {
+    String toAnsi();
+}
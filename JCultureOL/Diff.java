@@ -0,0 +1,57 @@
+package JCultureOL;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * compact encoding of the cells one move changed, so a guest can take the result of a move from the host instead of toppling it itself
+ * <p>
+ * every cell a move touches ends up owned by the mover, so only positions and values are written. the cells are sorted and each is written as the unsigned varint gap from the previous one followed by its value as one byte, which keeps the large connected areas a cascade changes close to two bytes a cell
+ */
+final class Diff {
+    private Diff() {}
+
+    /**
+     * @return the cells changed by the last move on the board, preceded by their count as an unsigned varint
+     */
+    static byte[] encode(Board board) {
+        int[] cells = board.copyChanged();
+        Arrays.sort(cells);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(cells.length * 2 + 5);
+        Snapshot.varint(out, cells.length);
+        int last = 0;
+        for (int i : cells) {
+            Snapshot.varint(out, i - last);
+            out.write(board.value(i));
+            last = i;
+        }
+        return out.toByteArray();
+    }
+    /**
+     * writes the encoded cells to a board as a move by the team, keeping the hash and the list of changed cells up to date as a topple engine would
+     * @param data encoded cells
+     * @param board board to change
+     * @param team team that made the move
+     * @throws IOException if the data is malformed or names a cell off the board
+     */
+    static void apply(byte[] data, Board board, int team) throws IOException {
+        int[] at = {0};
+        int count = Snapshot.varint(data, at);
+        long hash = board.hash;
+        board.beginMove();
+        int i = 0;
+        for (int k = 0; k < count; k ++) {
+            i += Snapshot.varint(data, at);
+            if (i < 0 || i >= board.cells || at[0] >= data.length) {
+                throw new IOException("malformed move diff");
+            }
+            byte value = data[at[0]++];
+            hash ^= Zobrist.key(i, board.team(i), board.value(i)) ^ Zobrist.key(i, team, value);
+            board.setTeam(i, team);
+            board.setValue(i, value);
+            board.touch(i);
+        }
+        board.hash = hash;
+    }
+}
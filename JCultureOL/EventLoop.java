@@ -0,0 +1,108 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * one thread driving the sockets of any number of games through a single {@link Selector}, so a process hosting hundreds of games needs a thread per core rather than one per game
+ * <p>
+ * handlers, tasks and timers all run on the loop thread one at a time and must never block. other threads hand work over with {@link EventLoop#execute(Runnable)}. a selector blocks the carrier of a virtual thread, which is why the loops are platform threads and not one virtual thread per game
+ */
+final class EventLoop {
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(Comparator.comparingLong(Timer::at)); // only touched on the loop thread
+    private volatile boolean stopped;
+
+    /**
+     * reacts to a channel registered with the loop
+     */
+    interface Handler {
+        /**
+         * called on the loop thread when the channel's key is selected
+         */
+        void ready(SelectionKey key);
+    }
+
+    /**
+     * a task due at a time in millis
+     */
+    private record Timer(long at, Runnable task) {}
+
+    EventLoop() throws IOException {
+        selector = Selector.open();
+    }
+    /**
+     * switches a channel to non-blocking and registers it, on the loop thread only
+     * @return the channel's key, its attachment is the handler
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        channel.configureBlocking(false);
+        return channel.register(selector, ops, handler);
+    }
+    /**
+     * runs a task on the loop thread as soon as it is free, from any thread
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+    /**
+     * runs a task on the loop thread after a delay, on the loop thread only
+     */
+    void schedule(long millis, Runnable task) {
+        timers.add(new Timer(System.currentTimeMillis() + millis, task));
+    }
+    /**
+     * makes {@link EventLoop#run()} return after the handlers and tasks it is running, from any thread
+     */
+    void stop() {
+        stopped = true;
+        selector.wakeup();
+    }
+    /**
+     * runs the loop on the calling thread until {@link EventLoop#stop()}, then closes the selector. channels still registered are left open for their owners to close
+     * @throws IOException if the selector fails
+     */
+    void run() throws IOException {
+        try {
+            while (!stopped) {
+                long now = System.currentTimeMillis();
+                while (!timers.isEmpty() && timers.peek().at() <= now) {
+                    call(timers.poll().task());
+                }
+                selector.select(timers.isEmpty() ? 0 : Math.max(1, timers.peek().at() - now)); // returns at once if a task was handed over since the last select
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        call(() -> ((Handler)key.attachment()).ready(key));
+                    }
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    call(task);
+                }
+            }
+        } finally {
+            selector.close();
+        }
+    }
+    /**
+     * runs a handler, task or timer, a bug in one game must not stop the others sharing the loop
+     */
+    private static void call(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package JCultureOL;
+
+class FullColor implements Color {
+    int r;
+    int g;
+    int b;
+    private final String ansi;
+    FullColor (int r, int g, int b) {
+        this.r = r;
+        this.g = g;
+        this.b = b;
+        this.ansi = "\u001b[38;2;" + r + ";" + g + ";" + b + "m";
+    }
+    public String toAnsi () {
+        return ansi;
+    }
+}
@@ -0,0 +1,163 @@
+package JCultureOL;
+
+import java.io.IOException;
+
+/**
+ * the rules and state of one game with no console, screen or sockets attached, so games can be played by the network code, the simulator and tests alike
+ * <p>
+ * {@link Game#apply(int, int, int)} makes a move for any team and leaves turns to the caller, as the host and guests track turns through the protocol. {@link Game#play(int, int)} also checks the move and passes the turn on, skipping teams that have nowhere left to move
+ */
+final class Game {
+    private final Board board;
+    private final Toppler cascade;
+    private final int players;
+    private int turn = 1;
+    private int winner = 0;
+
+    /**
+     * creates a game whose turns are tracked by the caller
+     * @param size width and height of the board
+     * @param parallel whether large boards may use the wavefront topple engine
+     */
+    Game(int size, boolean parallel) {
+        this(size, 0, parallel);
+    }
+    /**
+     * @param size width and height of the board
+     * @param players number of teams, numbered from 1, that take turns through {@link Game#play(int, int)}
+     * @param parallel whether large boards may use the wavefront topple engine, which keeps boards wider than {@link Board#SPARSE_SIZE} flat as the engine works on the flat arrays
+     */
+    Game(int size, int players, boolean parallel) {
+        this(new Board(size, size > Board.SPARSE_SIZE && !parallel), players, parallel);
+    }
+    private Game(Board board, int players, boolean parallel) {
+        this.board = board;
+        this.cascade = Toppler.create(board, parallel);
+        this.players = players;
+    }
+    /**
+     * starts a game from a position reached elsewhere, such as the board a guest keeps
+     * @param board position to start from, it is copied
+     * @param players number of teams taking turns
+     * @param turn team to move
+     * @return the game
+     */
+    static Game from(Board board, int players, int turn) {
+        Game game = new Game(board.copy(), players, false);
+        game.turn = turn;
+        return game;
+    }
+    /**
+     * @return an independent game in the same state
+     */
+    Game copy() {
+        Game game = new Game(board.copy(), players, false);
+        game.turn = turn;
+        game.winner = winner;
+        return game;
+    }
+    /**
+     * puts this game in the same state as another with the same board size and players, without allocating
+     * @param other game to copy
+     */
+    void copyFrom(Game other) {
+        board.copyFrom(other.board);
+        turn = other.turn;
+        winner = other.winner;
+    }
+    Board board() {
+        return board;
+    }
+    int players() {
+        return players;
+    }
+    /**
+     * @return the team whose turn it is
+     */
+    int turn() {
+        return turn;
+    }
+    /**
+     * @return the team that owns the whole board, 0 while the game is running
+     */
+    int winner() {
+        return winner;
+    }
+    /**
+     * a team may play on unowned cells and on its own cells
+     */
+    static boolean isValidMove(Board board, int x, int y, int team) {
+        return board.inBounds(x, y) && (board.team(x, y) == 0 || board.team(x, y) == team);
+    }
+    boolean isValidMove(int x, int y, int team) {
+        return isValidMove(board, x, y, team);
+    }
+    /**
+     * @return true if a team has a cell it may play on
+     */
+    boolean hasMove(int team) {
+        return board.owned(team) > 0 || board.owned(0) > 0;
+    }
+    boolean isFull(int x, int y) {
+        return board.isFull(board.index(x, y));
+    }
+    /**
+     * adds one to a cell for a team and topples it, without checking the move or the turn
+     * @return true if the move gave the team every cell on the board
+     */
+    boolean apply(int x, int y, int team) {
+        boolean won = cascade.run(x, y, team);
+        if (won) {
+            winner = team;
+        }
+        return won;
+    }
+    /**
+     * takes the result of a move from a {@link Diff} of the cells it changed instead of toppling, without checking the move or the turn
+     * @return true if the move gave the team every cell on the board
+     * @throws IOException if the diff is malformed
+     */
+    boolean apply(byte[] diff, int team) throws IOException {
+        Diff.apply(diff, board, team);
+        if (board.ownsAll(team)) {
+            winner = team;
+            return true;
+        }
+        return false;
+    }
+    /**
+     * plays a move for the team whose turn it is, then passes the turn to the next team that can move
+     * @return true if the move won the game
+     * @throws IllegalStateException if the game has no players or is over
+     * @throws IllegalArgumentException if the move is not valid for the team
+     */
+    boolean play(int x, int y) {
+        if (players == 0 || winner != 0) {
+            throw new IllegalStateException(players == 0 ? "turns are not tracked by this game" : "the game is over");
+        }
+        if (!isValidMove(x, y, turn)) {
+            throw new IllegalArgumentException("team " + turn + " cannot play " + x + ", " + y);
+        }
+        if (apply(x, y, turn)) {
+            return true;
+        }
+        do {
+            turn = turn % players + 1;
+        } while (!hasMove(turn));
+        return false;
+    }
+    /**
+     * @return the number of cells that toppled during the last move
+     */
+    int topples() {
+        return cascade.topples();
+    }
+    /**
+     * puts the board back to its starting state and gives the turn to team 1, reusing all storage
+     */
+    void reset() {
+        board.reset();
+        turn = 1;
+        winner = 0;
+    }
+}
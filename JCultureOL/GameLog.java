@@ -0,0 +1,83 @@
+package JCultureOL;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * append only binary record of a game, written by the host as moves are accepted and read back by {@link Replay}
+ * <p>
+ * every record is flushed as it is written, so a log cut short by a crash holds every move up to its last complete record
+ * <pre>
+ * "JCOL" (byte){version} (int){size} (int){number of non-default team colors} {r} {g} {b}...
+ * loop {
+ *   0x01 {x} {y} {TEAM} as unsigned varints, a move
+ *   0x02 (int){moves so far} (long){hash} (int){length} {snapshot}, the board after that many moves
+ * }
+ * </pre>
+ */
+final class GameLog implements Closeable {
+    static final int MAGIC = 0x4a434f4c; // "JCOL"
+    static final int VERSION = 1;
+    static final int MOVE = 0x01;
+    static final int CHECKPOINT = 0x02;
+    static final int CHECKPOINT_EVERY = 128; // moves between full boards, bounds the moves a seek replays
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(16);
+    private int moves;
+
+    /**
+     * creates the log, replacing any file already there, and writes its header
+     * @param file file to write
+     * @param size board size
+     * @param colors color table of the game
+     * @throws IOException
+     */
+    GameLog(Path file, int size, Color[] colors) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 65536));
+        byte[] rgb = SpectatorHub.rgb(colors);
+        out.writeInt(MAGIC);
+        out.write(VERSION);
+        out.writeInt(size);
+        out.writeInt(rgb.length / 3);
+        out.write(rgb);
+        out.flush();
+    }
+    /**
+     * appends a move, followed by a checkpoint every {@link GameLog#CHECKPOINT_EVERY} moves
+     * @param board board after the move
+     */
+    void move(int x, int y, int team, Board board) throws IOException {
+        record.reset();
+        record.write(MOVE);
+        Snapshot.varint(record, x);
+        Snapshot.varint(record, y);
+        Snapshot.varint(record, team);
+        record.writeTo(out);
+        moves ++;
+        if (moves % CHECKPOINT_EVERY == 0) {
+            byte[] snapshot = Snapshot.encode(board);
+            out.write(CHECKPOINT);
+            out.writeInt(moves);
+            out.writeLong(board.hash);
+            out.writeInt(snapshot.length);
+            out.write(snapshot);
+        }
+        out.flush();
+    }
+    /**
+     * @return the number of moves written
+     */
+    int moves() {
+        return moves;
+    }
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,33 @@
+package JCultureOL;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * looks at a handful of random valid cells and plays the one closest to toppling, preferring the team's own cells since toppling them captures neighbours
+ */
+final class GreedyMoves implements MoveSource {
+    private static final int SAMPLES = 24;
+    private final RandomMoves fallback = new RandomMoves();
+
+    @Override
+    public long nextMove(Board board, int team) {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        int best = -1;
+        int bestScore = -1;
+        for (int k = 0; k < SAMPLES; k ++) {
+            int i = rng.nextInt(board.cells);
+            if (!Game.isValidMove(board, i % board.size, i / board.size, team)) {
+                continue;
+            }
+            int score = board.value(i) * 4 / board.capacity(i) + (board.team(i) == team ? 4 : 0);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        if (best < 0) {
+            return fallback.nextMove(board, team);
+        }
+        return (((long)(best / board.size))<<32)|((long)(best % board.size));
+    }
+}
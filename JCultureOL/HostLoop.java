@@ -0,0 +1,560 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * non-blocking game loop for the host, every guest is driven by an {@link EventLoop} so a stalled guest can never hold up the others. the loop may be shared with other games, everything a game needs is reached through its {@link HostLoop.Table}
+ * <p>
+ * the host's own moves are read from the console, a move script or a bot on a separate thread and handed to the loop as a task
+ * <p>
+ * guests that asked for {@link Lobby#FEATURE_HASH} get the board hash after every move frame. a guest whose own board hashes differently sends {@link HostLoop#RESYNC} in place of a move and is sent a {@link Snapshot} of the host's board
+ * <p>
+ * guests that asked for {@link Lobby#FEATURE_DIFF} get 0x04 frames, the move frame followed by a {@link Diff} of the cells it changed, so they never run a cascade. the diff is encoded once per move and only if such a guest or a {@link SpectatorHub} needs it
+ * <p>
+ * a guest whose connection fails loses its turns rather than ending the game. one that asked for {@link Lobby#FEATURE_RESUME} may come back through the lobby with its session token within the grace period, and is sent its team, the color table, whether it is its turn and a snapshot of the board. when the turn passes over a disconnected guest, the next guest that asked for resume is told with a 0x05 frame, guests that did not cannot be told and are passed over as well
+ * <p>
+ * teams that have nowhere left to move are passed over like disconnected ones, as {@link Game#play(int, int)} does
+ */
+final class HostLoop {
+    static final long RESYNC = -1L; // sent by a guest in place of a move to ask for a copy of the board, no move has both coordinates at -1
+    private static final int FRAME = 14; // {0x02} {x} {y} {team} {turn}
+    private static final int HASHED_FRAME = FRAME + 8; // followed by (long){hash}
+    private static final long DRAIN = 5000; // millis guests get to take the frames still queued when the game ends
+
+    private final Table table;
+    private final EventLoop events;
+    private final Seat[] seats; // indexed by team, the host's own team has no seat
+    private final int pCount;
+    private final ByteBuffer frame = ByteBuffer.allocate(HASHED_FRAME); // move frame shared by every guest, only the turn flag and the length are set per guest
+    private final ByteBuffer ack = ByteBuffer.allocate(1); // valid flag sent to the mover in the same write as its frame
+    private boolean diffs; // whether any guest has taken diff frames
+    private final long grace; // millis a disconnected guest may take to come back
+    private boolean hostPending; // whether the host has been asked for a move it has not made yet
+    private boolean turnLost; // whether the current team disconnected and the turn has to be passed on
+    private final SpectatorHub spectators; // null if the game is not watched
+    private final GameLog log; // null if the game is not recorded
+    private final boolean stats;
+    private final CompletableFuture<Integer> ended = new CompletableFuture<>();
+    private boolean over; // whether the game has ended and only queued frames are still being sent
+    private int winner;
+    private Throwable failure; // why the game stopped early, null if it did not
+    private int cturn = 1;
+    private long moves, writes, bytes; // broadcast counters, writes are socket write calls
+    private long resyncs;
+
+    /**
+     * the game a loop runs and where its moves and messages go, one per game so a process can host many
+     */
+    interface Table {
+        Game game();
+        /**
+         * @return the color table of the game, the lobby has added the guests' colors to it
+         */
+        Color[] colors();
+        /**
+         * called off the loop thread while it is the host's turn
+         * @param players number of teams taking turns, the host's included
+         * @return the host's next move, packed as <code>(y << 32) | x</code>
+         * @throws Exception if the host cannot move, which ends the game
+         */
+        long nextMove(int players) throws Exception;
+        /**
+         * called after every move is applied and sent
+         */
+        void move(int x, int y, int team);
+        void message(String text);
+        /**
+         * called once when a team has won, before the last frames are drained
+         */
+        void winner(int team);
+    }
+
+    /**
+     * per guest connection state
+     */
+    private final class Seat implements EventLoop.Handler {
+        final int team;
+        final boolean resumes; // whether the guest may come back after a disconnect
+        final long token;
+        SocketChannel channel;
+        boolean hashes; // whether move frames carry the board hash
+        boolean diffs; // whether move frames carry the changed cells
+        boolean connected = true;
+        long droppedAt; // time in millis the connection was lost
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(8); // {y} {x}
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+
+        Seat(int team, Lobby.Guest guest) {
+            this.team = team;
+            this.resumes = guest.has(Lobby.FEATURE_RESUME);
+            this.token = guest.token();
+            this.channel = guest.channel();
+            this.hashes = guest.has(Lobby.FEATURE_HASH);
+            this.diffs = guest.has(Lobby.FEATURE_DIFF);
+        }
+        @Override
+        public void ready(SelectionKey key) {
+            HostLoop.this.ready(this, key);
+        }
+    }
+
+    /**
+     * @param table game to run
+     * @param guests connected guests in team order, the first guest is team 2
+     * @param events loop to run the game on, see {@link HostLoop#start()}
+     * @param stats whether to print the writes and bytes each move cost
+     * @param spectators hub every move is handed to, null if there is none
+     * @param log log every move is written to, null if there is none
+     * @param grace seconds a disconnected guest may take to come back
+     */
+    HostLoop(Table table, Lobby.Guest[] guests, EventLoop events, boolean stats, SpectatorHub spectators, GameLog log, int grace) {
+        this.table = table;
+        this.events = events;
+        this.stats = stats;
+        this.grace = grace * 1000L;
+        this.spectators = spectators;
+        this.log = log;
+        this.pCount = guests.length + 2;
+        this.seats = new Seat[pCount];
+        for (int i = 0; i < guests.length; i ++) {
+            Seat seat = new Seat(i + 2, guests[i]);
+            seats[i + 2] = seat;
+            diffs |= seat.diffs;
+        }
+    }
+    /**
+     * registers the guests with the event loop and asks the host for the first move, from any thread
+     */
+    void start() {
+        events.execute(() -> {
+            for (Seat seat : seats) {
+                if (seat == null) {
+                    continue;
+                }
+                try {
+                    seat.key = events.register(seat.channel, SelectionKey.OP_READ, seat);
+                } catch (IOException e) {
+                    disconnect(seat);
+                }
+            }
+            passLostTurn();
+            requestHostMove();
+        });
+    }
+    /**
+     * runs the game with its event loop on the calling thread until a team owns the whole board, for a loop that runs this game alone
+     * @throws IOException if the selector fails, or the game failed with one
+     */
+    void run() throws IOException {
+        start();
+        ended.whenComplete((team, e) -> events.stop());
+        events.run();
+        if (failure instanceof IOException e) {
+            throw e;
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+    /**
+     * @return completes with the winning team, or 0 if no team was left that could take the turn, once the guests' connections are closed. completes exceptionally if the game failed
+     */
+    CompletableFuture<Integer> ended() {
+        return ended;
+    }
+    /**
+     * hands a guest coming back to the game loop, for {@link Lobby#onRejoin(Lobby.Rejoin)}
+     */
+    void rejoin(SocketChannel channel, long token, int features) {
+        events.execute(() -> reseat(channel, token, features));
+    }
+    /**
+     * @return the session tokens of the guests that can come back, for whoever routes rejoining guests to games
+     */
+    long[] tokens() {
+        long[] tokens = new long[pCount];
+        int n = 0;
+        for (Seat seat : seats) {
+            if (seat != null && seat.resumes) {
+                tokens[n++] = seat.token;
+            }
+        }
+        return Arrays.copyOf(tokens, n);
+    }
+    private void ready(Seat seat, SelectionKey key) {
+        if (key.isWritable()) {
+            try {
+                flush(seat);
+            } catch (IOException e) {
+                disconnect(seat);
+            }
+        }
+        if (key.isValid() && key.isReadable()) {
+            try {
+                read(seat);
+            } catch (IOException e) { // from the log, the guests' failures are handled where they happen
+                end(0, e);
+            }
+        }
+        passLostTurn();
+    }
+    /**
+     * forgets a guest's connection, its seat is kept for it to come back to if it can
+     */
+    private void disconnect(Seat seat) {
+        if (!seat.connected) {
+            return;
+        }
+        seat.connected = false;
+        seat.droppedAt = System.currentTimeMillis();
+        if (seat.key != null) {
+            seat.key.cancel();
+        }
+        try {
+            seat.channel.close();
+        } catch (IOException e) {}
+        seat.in.clear();
+        seat.out.clear();
+        if (over) {
+            closeIfDrained();
+            return;
+        }
+        if (seat.team == cturn) {
+            turnLost = true; // passed on by the caller once it is done sending, so the pass never overtakes a move frame
+        }
+        table.message("team " + seat.team + " disconnected, " + (seat.resumes ? "its seat is held for " + grace / 1000 + "s" : "its turns are skipped"));
+    }
+    /**
+     * @param from team to count on from
+     * @param told whether the team has to be told it has the turn, which only guests that asked for resume can be
+     * @return the next team after the given one, wrapping around to it, that can take the turn, 0 if there is none
+     */
+    private int next(int from, boolean told) {
+        Game game = table.game();
+        int team = from;
+        for (int i = 1; i < pCount; i ++) {
+            team = Math.max(1, (team+1)%pCount);
+            if (team == 1 ? game.hasMove(1) : seats[team].connected && (!told || seats[team].resumes) && game.hasMove(team)) {
+                return team;
+            }
+        }
+        return 0;
+    }
+    /**
+     * passes the turn on if the team whose turn it was disconnected or cannot move, telling the next team with a 0x05 frame
+     */
+    private void passLostTurn() {
+        if (!over && cturn != 0 && !table.game().hasMove(cturn)) {
+            turnLost = true;
+        }
+        while (turnLost && !over) {
+            turnLost = false;
+            cturn = next(cturn, true);
+            if (cturn == 0) {
+                table.message("no team is left that can take the turn");
+                end(0, null);
+                return;
+            }
+            if (cturn == 1) {
+                requestHostMove();
+                return;
+            }
+            Seat seat = seats[cturn];
+            try {
+                send(seat, ByteBuffer.wrap(new byte[]{0x05}));
+            } catch (IOException e) {
+                disconnect(seat);
+            }
+        }
+    }
+    /**
+     * gives a guest that came back with a valid token its seat again
+     * <p>
+     * 0x01 (int){team} (int){size} (int){number of non-default team colors} {r} {g} {b}... (boolean){turn} (int){length} {snapshot}, or 0x00 if the token is unknown, its grace period is over or the game has ended
+     */
+    private void reseat(SocketChannel channel, long token, int features) {
+        Seat seat = null;
+        for (Seat s : seats) {
+            if (s != null && s.resumes && s.token == token) {
+                seat = s;
+            }
+        }
+        if (over || seat == null || (!seat.connected && System.currentTimeMillis() - seat.droppedAt > grace)) {
+            try {
+                channel.write(ByteBuffer.wrap(new byte[]{0x00}));
+                channel.close();
+            } catch (IOException e) {}
+            return;
+        }
+        disconnect(seat); // the old connection may not have failed on this side yet
+        if (turnLost && cturn == seat.team) {
+            turnLost = false; // back before the turn was passed on, so it keeps it
+        }
+        try {
+            seat.channel = channel;
+            seat.key = events.register(channel, SelectionKey.OP_READ, seat);
+            seat.connected = true;
+            seat.hashes = (features & Lobby.FEATURE_HASH) != 0;
+            seat.diffs = (features & Lobby.FEATURE_DIFF) != 0;
+            diffs |= seat.diffs;
+            Board board = table.game().board();
+            byte[] rgb = SpectatorHub.rgb(table.colors());
+            byte[] snapshot = Snapshot.encode(board);
+            ByteBuffer reply = ByteBuffer.allocate(18 + rgb.length + snapshot.length);
+            reply.put((byte)0x01).putInt(seat.team).putInt(board.size).putInt(rgb.length / 3).put(rgb);
+            reply.put((byte)(seat.team == cturn ? 0x01 : 0x00)).putInt(snapshot.length).put(snapshot).flip();
+            send(seat, reply);
+            table.message("team " + seat.team + " is back");
+        } catch (IOException e) {
+            disconnect(seat);
+        }
+    }
+    /**
+     * reads whatever the guest has sent, a complete move from the current player is validated and applied and a resync request is answered whoever sent it
+     * @throws IOException if the move could not be logged
+     */
+    private void read(Seat seat) throws IOException {
+        try {
+            if (seat.channel.read(seat.in) == -1) {
+                disconnect(seat);
+                return;
+            }
+        } catch (IOException e) {
+            disconnect(seat);
+            return;
+        }
+        if (over) { // nothing is taken once the game has ended
+            seat.in.clear();
+            return;
+        }
+        if (seat.in.hasRemaining()) {
+            return;
+        }
+        seat.in.flip();
+        int y = seat.in.getInt();
+        int x = seat.in.getInt();
+        seat.in.clear();
+        try {
+            if (seat.hashes && x == -1 && y == -1) { // RESYNC
+                resync(seat);
+                return;
+            }
+            if (seat.team != cturn) { // guests only send moves on their turn, anything else is ignored
+                return;
+            }
+            if (!table.game().isValidMove(x, y, cturn)) {
+                send(seat, ByteBuffer.wrap(new byte[]{0x00}));
+                return;
+            }
+        } catch (IOException e) {
+            disconnect(seat);
+            return;
+        }
+        apply(seat, x, y);
+    }
+    /**
+     * applies a move for the current team, tells every guest about it and passes the turn on
+     * <p>
+     * the frame is encoded once, each guest gets it in a single write with only the turn flag changed
+     * @param mover seat that made the move and is still owed its valid flag, null for the host
+     * @throws IOException if the move could not be logged
+     */
+    private void apply(Seat mover, int x, int y) throws IOException {
+        int oturn = cturn;
+        Board board = table.game().board();
+        boolean won = table.game().apply(x, y, oturn);
+        if (log != null) {
+            log.move(x, y, oturn, board);
+        }
+        cturn = next(oturn, false); // never 0, the mover can still move
+        long owrites = writes;
+        long obytes = bytes;
+        frame.clear();
+        frame.put((byte)0x02).putInt(x).putInt(y).putInt(oturn).put((byte)0x00).putLong(board.hash);
+        ByteBuffer diff = null; // (int){length} {diff}
+        if (diffs || spectators != null) {
+            byte[] cells = Diff.encode(board);
+            diff = ByteBuffer.allocate(4 + cells.length).putInt(cells.length).put(cells).flip();
+            if (spectators != null) {
+                spectators.move(x, y, oturn, cells, board.hash);
+            }
+        }
+        for (Seat seat : seats) {
+            if (seat == null || !seat.connected) {
+                continue;
+            }
+            frame.put(0, (byte)(seat.diffs ? 0x04 : 0x02)).put(FRAME - 1, (byte)(seat.team == cturn ? 0x01 : 0x00)).limit(seat.hashes ? HASHED_FRAME : FRAME).rewind();
+            try {
+                if (seat == mover) {
+                    ack.clear().put(0, (byte)0x01);
+                    if (seat.diffs) {
+                        send(seat, ack, frame, diff.rewind());
+                    } else {
+                        send(seat, ack, frame);
+                    }
+                } else if (seat.diffs) {
+                    send(seat, frame, diff.rewind());
+                } else {
+                    send(seat, frame);
+                }
+            } catch (IOException e) {
+                disconnect(seat);
+            }
+        }
+        moves ++;
+        table.move(x, y, oturn);
+        if (stats) {
+            table.message("move " + moves + ": " + (writes - owrites) + " writes, " + (bytes - obytes) + " bytes (" + stats() + ")");
+        }
+        if (won) {
+            table.winner(oturn);
+            end(oturn, null);
+            return;
+        }
+        passLostTurn();
+        requestHostMove();
+    }
+    /**
+     * sends a guest whose board no longer matches the host's a copy of it, the guest has every earlier frame so the copy replaces its board as of the last one
+     * <p>
+     * {0x03} (int){length} {{@link Snapshot} of the board}
+     */
+    private void resync(Seat seat) throws IOException {
+        byte[] snapshot = Snapshot.encode(table.game().board());
+        ByteBuffer head = ByteBuffer.allocate(5).put((byte)0x03).putInt(snapshot.length).flip();
+        send(seat, head, ByteBuffer.wrap(snapshot));
+        resyncs ++;
+        table.message("team " + seat.team + " lost track of the board and was sent a copy (" + (snapshot.length + 5) + " bytes)");
+    }
+    /**
+     * starts a virtual thread that asks the host for a move if it is the host's turn
+     */
+    private void requestHostMove() {
+        if (cturn != 1 || hostPending || over) {
+            return;
+        }
+        hostPending = true;
+        Thread.ofVirtual().name("host-input").start(() -> {
+            try {
+                long position = table.nextMove(pCount - 1);
+                events.execute(() -> hostMove(position));
+            } catch (Exception e) {
+                events.execute(() -> end(0, e));
+            }
+        });
+    }
+    private void hostMove(long position) {
+        hostPending = false;
+        if (over) {
+            return;
+        }
+        int y = (int)(position >> 32);
+        int x = (int)(position & 0xffffffff);
+        try {
+            apply(null, x, y);
+        } catch (IOException e) {
+            end(0, e);
+        }
+    }
+    /**
+     * stops taking moves and closes every guest once its queued frames are sent, or after {@link HostLoop#DRAIN} at the latest
+     * @param team winning team, 0 if there is none
+     * @param e why the game stopped early, null if it did not
+     */
+    private void end(int team, Throwable e) {
+        if (over) {
+            return;
+        }
+        over = true;
+        winner = team;
+        failure = e;
+        events.schedule(DRAIN, this::close);
+        closeIfDrained();
+    }
+    private void closeIfDrained() {
+        for (Seat seat : seats) {
+            if (seat != null && seat.connected && !seat.out.isEmpty()) {
+                return;
+            }
+        }
+        close();
+    }
+    private void close() {
+        if (ended.isDone()) {
+            return;
+        }
+        for (Seat seat : seats) {
+            if (seat != null && seat.connected) {
+                seat.connected = false;
+                seat.key.cancel();
+                try {
+                    seat.channel.close();
+                } catch (IOException e) {}
+            }
+        }
+        if (failure == null) {
+            ended.complete(winner);
+        } else {
+            ended.completeExceptionally(failure);
+        }
+    }
+    /**
+     * @return running averages of the broadcast cost per move
+     */
+    String stats() {
+        if (moves == 0) {
+            return "no moves";
+        }
+        return String.format("%.1f writes/move, %.1f bytes/move, %d resyncs", (double)writes / moves, (double)bytes / moves, resyncs);
+    }
+    /**
+     * @return the number of moves played
+     */
+    long moves() {
+        return moves;
+    }
+    /**
+     * writes as much as the socket accepts right now in one call, the rest is copied out of the possibly shared buffers and waits for the channel to become writable
+     */
+    private void send(Seat seat, ByteBuffer... bufs) throws IOException {
+        if (seat.out.isEmpty()) {
+            bytes += seat.channel.write(bufs);
+            writes ++;
+            if (!bufs[bufs.length - 1].hasRemaining()) {
+                return;
+            }
+            seat.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        int left = 0;
+        for (ByteBuffer buf : bufs) {
+            left += buf.remaining();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(left);
+        for (ByteBuffer buf : bufs) {
+            copy.put(buf);
+        }
+        seat.out.add(copy.flip());
+    }
+    private void flush(Seat seat) throws IOException {
+        while (!seat.out.isEmpty()) {
+            ByteBuffer buf = seat.out.peek();
+            bytes += seat.channel.write(buf);
+            writes ++;
+            if (buf.hasRemaining()) {
+                return;
+            }
+            seat.out.poll();
+        }
+        seat.key.interestOps(SelectionKey.OP_READ);
+        if (over) {
+            closeIfDrained();
+        }
+    }
+}
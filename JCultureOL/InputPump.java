@@ -0,0 +1,189 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * reads an {@link InputStream} on a daemon thread of its own into a ring buffer, so readers can wait on a condition instead of polling <code>available()</code> and can be woken at any time
+ * <p>
+ * the thread is started by the first read, so building a reader on a stream does not take input away from anything else until it is actually used
+ */
+final class InputPump {
+    static final int NONE = -2; // returned by read() when no byte was taken
+
+    private final InputStream source;
+    private final String name;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition filled = lock.newCondition(); // signalled when bytes arrive, at the end of input and by wake()
+    private final Condition drained = lock.newCondition(); // signalled when room is made in the ring
+    private final byte[] ring;
+    private int head, count; // start and length of the buffered bytes
+    private boolean eof;
+    private IOException failure;
+    private Thread thread;
+
+    /**
+     * @param source stream to read from, only the pump reads it once started
+     * @param name name of the reading thread
+     * @param capacity size of the ring buffer
+     */
+    InputPump(InputStream source, String name, int capacity) {
+        this.source = source;
+        this.name = name;
+        this.ring = new byte[capacity];
+    }
+    /**
+     * takes one byte
+     * @param wait whether to wait for a byte if none is buffered
+     * @param interrupted checked before taking anything and again after every wake up
+     * @return the byte, -1 at the end of input or {@link InputPump#NONE} if interrupted or nothing was buffered and <code>wait = false</code>
+     * @throws IOException if reading the source failed
+     */
+    int read(boolean wait, BooleanSupplier interrupted) throws IOException {
+        lock.lock();
+        try {
+            if (!await(wait, interrupted)) {
+                return eof && count == 0 ? -1 : NONE;
+            }
+            int b = ring[head] & 0xff;
+            take(1);
+            return b;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * takes as many buffered bytes as fit, waiting only if none are buffered
+     * @return number of bytes taken, -1 at the end of input or 0 if interrupted or nothing was buffered and <code>wait = false</code>
+     * @throws IOException if reading the source failed
+     */
+    int read(byte[] b, int off, int len, boolean wait, BooleanSupplier interrupted) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            if (!await(wait, interrupted)) {
+                return eof && count == 0 ? -1 : 0;
+            }
+            int n = Math.min(len, count);
+            int first = Math.min(n, ring.length - head);
+            System.arraycopy(ring, head, b, off, first);
+            System.arraycopy(ring, 0, b, off + first, n - first);
+            take(n);
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * @return number of bytes that can be taken without waiting
+     */
+    int available() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * discards up to n buffered bytes without waiting
+     * @return number of bytes discarded
+     */
+    long skip(long n) {
+        lock.lock();
+        try {
+            int k = (int)Math.max(0, Math.min(n, count));
+            take(k);
+            return k;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * wakes every waiting reader so it can check its interrupted flag
+     */
+    void wake() {
+        lock.lock();
+        try {
+            filled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * waits until bytes are buffered, must hold the lock
+     * @return true if there is at least one byte to take
+     */
+    private boolean await(boolean wait, BooleanSupplier interrupted) throws IOException {
+        start();
+        while (true) {
+            if (interrupted.getAsBoolean()) {
+                return false;
+            }
+            if (count > 0) {
+                return true;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (eof || !wait) {
+                return false;
+            }
+            filled.awaitUninterruptibly();
+        }
+    }
+    private void take(int n) {
+        head = (head + n) % ring.length;
+        count -= n;
+        drained.signal();
+    }
+    private void start() {
+        if (thread == null) {
+            thread = new Thread(this::pump, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    private void pump() {
+        byte[] chunk = new byte[Math.min(ring.length, 8192)];
+        try {
+            while (true) {
+                int n = source.read(chunk); // blocks without using any cpu until input arrives
+                lock.lock();
+                try {
+                    if (n == -1) {
+                        eof = true;
+                        return;
+                    }
+                    for (int done = 0; done < n; ) {
+                        while (count == ring.length) {
+                            drained.awaitUninterruptibly();
+                        }
+                        int tail = (head + count) % ring.length;
+                        int k = Math.min(n - done, Math.min(ring.length - count, ring.length - tail));
+                        System.arraycopy(chunk, done, ring, tail, k);
+                        count += k;
+                        done += k;
+                        filled.signalAll();
+                    }
+                } finally {
+                    filled.signalAll();
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+                filled.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -1,20 +1,46 @@
 package JCultureOL;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
 import java.util.Arrays;
+import java.util.function.BooleanSupplier;
 
 /**
  * uses an {@link InputStream} to provide an interruptable input handler
+ * <p>
+ * the source is read by an {@link InputPump} thread, waiting for input parks the caller instead of polling and {@link InterruptableInputHandler#interrupt()} wakes it straight away
  */
 public class InterruptableInputHandler {
-    private InputStream source;
+    private InputPump source;
     private OutputStream drain;
     private volatile boolean interrupted = false;
+    private final BooleanSupplier isInterrupted = () -> interrupted;
     private volatile boolean rawterm = false;
     private volatile String sttySettings;
+    private volatile EscapeListener escapeListener;
+    private static TerminalControl terminal; // in process terminal control, null if it is unavailable
+    private static boolean probed = false; // whether opening the native terminal has been tried
+    private final History history = new History(64, 256);
+    private final StringBuilder line = new StringBuilder(); // line being edited, reused by every call to readLine
+    private final StringBuilder draft = new StringBuilder(); // line being typed before the history was recalled
+    private byte[] echoBuf = new byte[256]; // output for one keystroke, written in a single call
+    private int echoLen;
+
+    /**
+     * receives escape sequences typed during {@link InterruptableInputHandler#readLine(String prompt)}
+     */
+    public interface EscapeListener {
+        /**
+         * @param sequence the sequence after <code>ESC [</code>, including parameters and the final character
+         * @param finalc the final character
+         * @return true if the sequence was handled, which stops the line editor from acting on it
+         * @throws IOException
+         */
+        boolean onEscape(String sequence, char finalc) throws IOException;
+    }
 
     /**
      * call is equivalent to {@link InterruptableInputHandler#ThreadsafeInputHandler(Inputstream source, boolean interrupted)} where <code>interrupted = false</code>
@@ -22,7 +48,7 @@ public class InterruptableInputHandler {
      * @param drain {@link OutputStream} to write to
      */
     public InterruptableInputHandler(InputStream source, OutputStream drain) {
-        this.source = source;
+        this.source = new InputPump(source, "input-handler", 4096);
         this.drain = drain;
     }
     /**
@@ -32,7 +58,7 @@ public class InterruptableInputHandler {
      * @param interrupted boolean whether the handler starts as interrupted
      */
     public InterruptableInputHandler(InputStream source, OutputStream drain, boolean interrupted) {
-        this.source = source;
+        this.source = new InputPump(source, "input-handler", 4096);
         this.drain = drain;
         this.interrupted = interrupted;
     }
@@ -51,17 +77,21 @@ public class InterruptableInputHandler {
     public int getChar() throws IOException {
         return getChar(true);
     }
+    /**
+     * gets a char from the source input stream
+     * @param waitfor whether to wait for input if none is buffered
+     * @return the char, or <code>-1</code> if <code>waitfor = false</code> and nothing is buffered or the input has ended
+     * @throws IOException if the handler is interrupted, including while waiting
+     */
     public int getChar(boolean waitfor) throws IOException {
-        while (true) {
+        int c = source.read(waitfor, isInterrupted);
+        if (c == InputPump.NONE) {
             if (interrupted) {
                 throw new IOException("input was interrupted");
             }
-            if (source.available() > 0) { // only reads if source has available bytes, prevents blocking by the read operation so state can be checked
-                return source.read();
-            } else if (!waitfor) {
-                return -1;
-            }
+            return -1;
         }
+        return c;
     }
     /**
      * call is equivalent to {@link InterruptableInputHandler#getCharUnsafe(boolean waitfor)} where <code>waitfor = true</code>
@@ -74,20 +104,12 @@ public class InterruptableInputHandler {
     /**
      * gets a char from the source input stream
      * @param waitfor boolean
-     * @return <code>-1</code> if the {@link InterruptableInputHandler} is interrupted or <code>waitfor = false</code> and <code>source.available()</code> returns <code>0</code>, otherwise returns the result of <code>source.read()</code>
+     * @return <code>-1</code> if the {@link InterruptableInputHandler} is interrupted, <code>waitfor = false</code> and nothing is buffered or the input has ended, otherwise the char read
      * @throws IOException
      */
     public int getCharUnsafe(boolean waitfor) throws IOException {
-        while (true) {
-            if (interrupted) {
-                return -1;
-            }
-            if (source.available() > 0) {
-                return source.read();
-            } else if (!waitfor) {
-                return -1;
-            }
-        }
+        int c = source.read(waitfor, isInterrupted);
+        return c == InputPump.NONE ? -1 : c;
     }
     /**
      * call is equivalent to {@code getChars(count, true)}
@@ -114,7 +136,7 @@ public class InterruptableInputHandler {
         while (i < count) {
             int gotten = getChar(waitfor);
             if (gotten == -1) {
-                result = Arrays.copyOf(result, i);
+                return Arrays.copyOf(result, i);
             }
             result[i++] = gotten;
         }
@@ -145,28 +167,12 @@ public class InterruptableInputHandler {
         while (i < count) {
             int gotten = getCharUnsafe(waitfor);
             if (gotten == -1) {
-                result = Arrays.copyOf(result, i);
+                return Arrays.copyOf(result, i);
             }
             result[i++] = gotten;
         }
         return result;
     }
-    private void redisplayLine(String prompt, StringBuilder cinput, int curpos) throws IOException {
-        drain.write(new byte[]{0x1b, '[', '2', 'K', 13}); // reset line and put cursor at left edge
-        // drain.write(new byte[]{0x1b, '[', '6', 'n'});
-        byte[] pbytes = prompt.getBytes();
-        drain.write(pbytes); // write the prompt
-        cinput.chars().forEach(n->{try{drain.write(n);}catch(IOException e){}}); // write the input currently entered
-        // int dif = cinput.length()-curpos;
-        // if (dif > 0) {
-        //     drain.write(new byte[]{0x1b, '[', (byte)(dif), 'D'});
-        // }
-        // drain.write(Integer.toString(curpos).getBytes()); // TODO: cursor debug
-        drain.write(new byte[]{0x1b, '['});
-        drain.write(Integer.toString(curpos + pbytes.length + 1).getBytes());
-        drain.write('G');
-        drain.flush();
-    }
     /**
      * call is equivalent to {@link InterruptableInputHandler#readLine(String prompt)} where prompt is an empty string
      * @return
@@ -177,21 +183,33 @@ public class InterruptableInputHandler {
     }
     /**
      * reads until the end of the line, all input is handled properly, result will not include the line separator
+     * <p>
+     * in raw mode every edit is echoed as the few escape sequences that change the screen, written in one go, and up and down step through the lines entered before
      * @param propmt String prompt to display to the user
      * @return the user input
      * @throws IOException
      */
     public String readLine(String prompt) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = line;
+        sb.setLength(0);
         int curpos = 0;
+        int back = 0; // how far back in the history the line being edited is, 0 for a new line
+        drain.write(prompt.getBytes());
+        drain.flush();
         int gotten = getChar();
         while (true) {
+            echoLen = 0;
+            if (gotten == -1) {
+                throw new EOFException("input ended before the end of the line");
+            }
             if (gotten == '\n' || gotten == '\r') { // handle end of line
                 if (rawterm) { // raw mode will not show user input in the terminal's output
                     drain.write(new byte[]{10, 13});
+                    drain.flush();
                 } else if (gotten == '\r') {
-                    source.read(); // when not in raw mode, '\r' is always followed by '\n' which must also be read
+                    getChar(); // when not in raw mode, '\r' is always followed by '\n' which must also be read
                 }
+                history.add(sb);
                 return sb.toString();
             }
             if (gotten == '\u001b') { // handle escape sequences
@@ -205,21 +223,26 @@ public class InterruptableInputHandler {
                         StringBuilder checker = new StringBuilder(1);
                         while (true) {
                             int next = getChar();
+                            if (next == -1) {
+                                throw new EOFException("input ended inside an escape sequence");
+                            }
                             checker.append((char)next);
-                            if (Character.isAlphabetic(next)) {
+                            if (next >= 0x40 && next <= 0x7e) { // parameters and intermediates are below 0x40, the final character ends the sequence
                                 finalc = (char)next;
                                 break;
                             }
                         }
                         res = checker.toString();
                     }
+                    if (escapeListener != null && escapeListener.onEscape(res, finalc)) {
+                        gotten = getChar();
+                        continue;
+                    }
                     switch (finalc) { // do various things based on the control code entered
                         case ('C'): // (CUR RIGHT) move cursor right for text editing
                             if (curpos < sb.length()) {
                                 curpos ++;
-                                if (rawterm) {
-                                    redisplayLine(prompt, sb, curpos);
-                                }
+                                echo("\u001b[C");
                             } else {
                                 signalInvalid();
                             }
@@ -227,53 +250,170 @@ public class InterruptableInputHandler {
                         case ('D'): // (CUR LEFT) move cursor left for text editing
                             if (curpos > 0) {
                                 curpos --;
-                                if (rawterm) {
-                                    redisplayLine(prompt, sb, curpos);
-                                }
+                                echo("\u001b[D");
                             } else {
                                 signalInvalid();
                             }
                             break;
-                        case ('A'): // (CUR UP) no history implemented
-                        case ('B'): // (CUR DOWN) no history implemented
+                        case ('A'): // (CUR UP) recall the previous line
+                        case ('B'): // (CUR DOWN) recall the next line, or the line being typed before recalling
+                            int to = back + (finalc == 'A' ? 1 : -1);
+                            if (to < 0 || to > history.size()) {
+                                signalInvalid();
+                                break;
+                            }
+                            if (back == 0) {
+                                draft.setLength(0);
+                                draft.append(sb);
+                            }
+                            back = to;
+                            if (back == 0) {
+                                sb.setLength(0);
+                                sb.append(draft);
+                            } else {
+                                history.copyTo(back, sb);
+                            }
+                            if (curpos > 0) {
+                                echo("\u001b[");
+                                echoInt(curpos);
+                                echo('D');
+                            }
+                            echo("\u001b[K");
+                            echo(sb);
+                            curpos = sb.length();
+                            break;
+                        case ('~'): // (DELETE) is sent as ESC [ 3 ~
+                            if (res.equals("3~") && curpos < sb.length()) {
+                                sb.deleteCharAt(curpos);
+                                echo("\u001b[P");
+                            }
+                            break;
                         case ('m'): // (GRAPHIC SETTING) no color changes allowed
                         default: // unrecognized, do nothing
                             break;
                     }
+                    flushEcho();
                     gotten = getChar();
-                    // if (rawterm) {
-                    //     redisplayLine(prompt, sb, curpos);
-                    // }
                 }
                 continue;
             }
-            if (gotten == 127) {
+            if (gotten == 127 || gotten == '\b') {
                 if (curpos > 0) {
                     curpos --;
                     sb.deleteCharAt(curpos);
+                    echo("\b\u001b[P"); // step back and delete the character under the cursor, closing the gap
                 } else {
                     signalInvalid();
                 }
-                if (rawterm) {
-                    redisplayLine(prompt, sb, curpos);
-                }
+                flushEcho();
                 gotten = getChar();
                 continue;
             }
+            if (curpos < sb.length()) {
+                echo("\u001b[@"); // open a gap at the cursor for the new character
+            }
             sb.insert(curpos, (char)gotten);
+            echo((char)gotten);
             curpos ++;
-            if (rawterm) {
-                // try {
-                //     Thread.sleep(500);
-                // } catch (InterruptedException e) {
-                //     // TODO Auto-generated catch block
-                //     e.printStackTrace();
-                // }
-                redisplayLine(prompt, sb, curpos);
-            }
+            flushEcho();
             gotten = getChar();
         }
     }
+    /**
+     * queues output for the current keystroke, nothing is queued outside raw mode as the terminal echoes by itself
+     */
+    private void echo(char c) {
+        if (!rawterm) {
+            return;
+        }
+        if (echoLen == echoBuf.length) {
+            echoBuf = Arrays.copyOf(echoBuf, echoLen * 2);
+        }
+        echoBuf[echoLen++] = (byte)c;
+    }
+    private void echo(CharSequence text) {
+        for (int k = 0; k < text.length(); k ++) {
+            echo(text.charAt(k));
+        }
+    }
+    private void echoInt(int v) {
+        if (v >= 10) {
+            echoInt(v / 10);
+        }
+        echo((char)('0' + v % 10));
+    }
+    /**
+     * writes everything queued for the keystroke in a single write
+     */
+    private void flushEcho() throws IOException {
+        if (echoLen > 0) {
+            drain.write(echoBuf, 0, echoLen);
+            drain.flush();
+            echoLen = 0;
+        }
+    }
+
+    /**
+     * fixed size ring of past lines, every slot is allocated up front so recording and recalling a line allocates nothing
+     */
+    private static final class History {
+        private final char[][] lines;
+        private final int[] lengths;
+        private int next; // slot the next line goes in
+        private int count;
+
+        /**
+         * @param capacity number of lines kept, the oldest is overwritten once it is full
+         * @param width longest line kept, longer lines are cut short
+         */
+        History(int capacity, int width) {
+            lines = new char[capacity][width];
+            lengths = new int[capacity];
+        }
+        /**
+         * records a line unless it is empty or repeats the newest line
+         */
+        void add(CharSequence line) {
+            int n = Math.min(line.length(), lines[0].length);
+            if (n == 0 || count > 0 && repeats(line, n)) {
+                return;
+            }
+            char[] slot = lines[next];
+            for (int k = 0; k < n; k ++) {
+                slot[k] = line.charAt(k);
+            }
+            lengths[next] = n;
+            next = (next + 1) % lines.length;
+            count = Math.min(count + 1, lines.length);
+        }
+        int size() {
+            return count;
+        }
+        /**
+         * replaces the contents of a builder with a past line
+         * @param back 1 for the newest line, up to {@link History#size()} for the oldest
+         */
+        void copyTo(int back, StringBuilder sb) {
+            int s = slot(back);
+            sb.setLength(0);
+            sb.append(lines[s], 0, lengths[s]);
+        }
+        private boolean repeats(CharSequence line, int n) {
+            int s = slot(1);
+            if (lengths[s] != n) {
+                return false;
+            }
+            for (int k = 0; k < n; k ++) {
+                if (lines[s][k] != line.charAt(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        private int slot(int back) {
+            return (next - back + lines.length) % lines.length;
+        }
+    }
     /**
      * @return the value of the interrupted flag
      */
@@ -291,28 +431,88 @@ public class InterruptableInputHandler {
      */
     public void interrupt() {
         interrupted = true;
+        source.wake();
+    }
+    /**
+     * sets the listener offered escape sequences before the line editor handles them
+     * @param listener the listener, or null to remove it
+     */
+    public void setEscapeListener(EscapeListener listener) {
+        escapeListener = listener;
+    }
+    /**
+     * opens the native terminal once. it is loaded by name as it is built apart from the game, if it was not built or the jvm runs without the foreign function api the stty commands are used instead
+     * @return the native terminal, or null if it is unavailable
+     */
+    private static synchronized TerminalControl nativeTerminal() {
+        if (!probed) {
+            probed = true;
+            try {
+                terminal = (TerminalControl)Class.forName("JCultureOL.NativeTerminal").getDeclaredMethod("open").invoke(null);
+            } catch (Throwable E) {
+                terminal = null;
+            }
+        }
+        return terminal;
     }
     /**
-     * uses stty to put the terminal in raw mode, saves the original settings which can be restored through {@link InterruptableInputHandler#unmakeRaw()}
+     * asks the terminal for its size, through an ioctl when the native terminal is available and stty otherwise
+     * @return <code>{rows, columns}</code>, falls back to the LINES and COLUMNS environment variables and then to 24 by 80
+     */
+    public int[] getTerminalSize() {
+        TerminalControl nt = nativeTerminal();
+        int[] nsize = nt == null ? null : nt.size();
+        if (nsize != null) {
+            return nsize;
+        }
+        try {
+            Process proc = new ProcessBuilder("stty", "size").redirectInput(Redirect.INHERIT).start();
+            String[] size = new String(proc.getInputStream().readAllBytes()).trim().split(" ");
+            proc.waitFor();
+            if (size.length == 2 && Integer.parseInt(size[0]) > 0) {
+                return new int[]{Integer.parseInt(size[0]), Integer.parseInt(size[1])};
+            }
+        } catch (Exception E) {}
+        try {
+            return new int[]{Integer.parseInt(System.getenv("LINES")), Integer.parseInt(System.getenv("COLUMNS"))};
+        } catch (Exception E) {}
+        return new int[]{24, 80};
+    }
+    /**
+     * puts the terminal in raw mode, saves the original settings which can be restored through {@link InterruptableInputHandler#unmakeRaw()}
+     * <p>
+     * the switch is made in process with tcsetattr when the native terminal is available, otherwise stty is started to make it
      * @throws IOException
      */
     public void makeRaw() throws IOException {
+        TerminalControl nt = nativeTerminal();
+        if (nt != null) {
+            nt.makeRaw();
+            setRaw();
+            return;
+        }
         Process proc = new ProcessBuilder("stty", "-g").redirectInput(Redirect.INHERIT).start();
         try {
             proc.waitFor();
         } catch (InterruptedException E) {}
-        sttySettings = new String(proc.getInputStream().readAllBytes());
+        sttySettings = new String(proc.getInputStream().readAllBytes()).trim();
         // System.out.println(new String(new ProcessBuilder("stty", "-g").redirectInput(Redirect.INHERIT).start().getInputStream().readAllBytes()));
         try {
-            new ProcessBuilder("stty", "raw").inheritIO().start().waitFor();
+            new ProcessBuilder("stty", "raw", "-echo").inheritIO().start().waitFor();
         } catch (InterruptedException E) {}
         setRaw();
     }
     /**
-     * uses stty to restore original terminal settings which can be stored through {@link InterruptableInputHandler#makeRaw()}
+     * restores original terminal settings which can be stored through {@link InterruptableInputHandler#makeRaw()}
      * @throws IOException
      */
     public void unmakeRaw() throws IOException {
+        TerminalControl nt = nativeTerminal();
+        if (nt != null) {
+            nt.restore();
+            clearRaw();
+            return;
+        }
         Process proc = new ProcessBuilder("stty", sttySettings).inheritIO().start();
         try {
             proc.waitFor();
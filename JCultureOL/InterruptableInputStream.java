@@ -1,34 +1,73 @@
 package JCultureOL;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.BooleanSupplier;
 
 /**
  * provides a way for an inputstream to be interrupted by a parent thread allowing a child thread to exit safely
+ * <p>
+ * the source is read in bulk by an {@link InputPump} thread into an internal buffer, so reads never poll and an interrupt wakes a blocked reader straight away
  */
 public class InterruptableInputStream extends InputStream {
-    private InputStream source;
+    private InputPump source;
     private volatile boolean interrupted = false;
     private volatile boolean closed = false;
+    private final BooleanSupplier isInterrupted = () -> interrupted;
 
     public InterruptableInputStream(InputStream source) {
-        this.source = source;
+        this.source = new InputPump(source, "interruptable-input", 8192);
     }
 
     public InterruptableInputStream(InputStream source, boolean interrupted) {
-        this.source = source;
+        this(source);
         this.interrupted = interrupted;
     }
 
     @Override
     public int read() throws IOException {
-        while (true) {
-            if (interrupted) {
-                throw new IOException("read operation was interrupted via a method");
-            }
-            if (source.available() > 0) {
-                return source.read();
-            }
+        int b = source.read(true, isInterrupted);
+        if (b == InputPump.NONE) {
+            throw new IOException("read operation was interrupted via a method");
         }
+        return b;
+    }
+
+    /**
+     * reads whatever is buffered, waiting only if nothing is
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int n = source.read(b, off, len, true, isInterrupted);
+        if (n == 0) {
+            throw new IOException("read operation was interrupted via a method");
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of bytes already buffered
+     */
+    @Override
+    public int available() throws IOException {
+        return source.available();
+    }
+
+    /**
+     * skips buffered bytes, waiting for more only through {@link InterruptableInputStream#read(byte[], int, int)}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = source.skip(n);
+        if (skipped == 0 && n > 0) {
+            return super.skip(n); // reads and discards through the interruptable bulk read
+        }
+        return skipped;
     }
 
     /**
@@ -52,10 +91,11 @@ public class InterruptableInputStream extends InputStream {
     }
 
     /**
-     * sets the interrupted flag
+     * sets the interrupted flag and wakes any blocked read
      */
     public void interrupt() {
         interrupted = true;
+        source.wake();
     }
-    
+
 }
@@ -3,19 +3,29 @@ package JCultureOL;
 import java.io.Console;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.net.ServerSocket;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Random;
-import java.util.Stack;
 
 /*
  * PROTOCOL:
  * JOINING {
  * guest connects to host
- * guest -> host: (boolean){msg}
+ * guest -> host: (byte){hello}, bit 0 {msg}, bit 1 {hash}, bit 2 {diff}, bit 3 {spectate}, bit 4 {resume}, bit 5 {rejoin} see REJOINING. older guests send (boolean){msg}
+ * IF {spectate} {
+ * spectators connect to the spectator port instead, see SpectatorHub, the lobby port refuses them
+ * host -> guest: 0x00; STOP
+ * }
  * IF {msg} {
  * guest -> host: (int){msglength} {UTF-16BE encoded string}
  * }
@@ -30,6 +40,9 @@ import java.util.Stack;
  * foreach (non-default team colors) {
  * host -> guest: {r} {g} {b}
  * }
+ * IF {resume} {
+ * host -> guest: (long){session token}
+ * }
  * IF {TEAM > 7} {
  * host -> foreach (joined) {
  * host -> one: 0x01
@@ -48,16 +61,36 @@ import java.util.Stack;
  * IF {valid} {
  * guest.turn = false;
  * host -> foreach (joined) {
- * host -> one: 0x02
+ * host -> one: 0x02, or 0x04 IF {one.diff}
  * host -> one: {x} {y} {TEAM}
  * IF {one} is (next player) {
  * host -> one: 0x01
  * } ELSE {
  * host -> one: 0x00
  * }
+ * IF {one.hash} {
+ * host -> one: (long){zobrist hash of the board after the move}
+ * }
+ * IF {one.diff} {
+ * host -> one: (int){length} {changed cells as varint gaps and values, all now owned by TEAM}
+ * }
+ * }
  * }
  * }
+ * IF {hash} AND (own board hashes differently) {
+ * guest -> host: (long){-1}
+ * host -> guest: 0x03 (int){length} {run length encoded board}
  * }
+ * IF {resume} AND (the team before disconnected on its turn) {
+ * host -> guest: 0x05, it is now this guest's turn
+ * }
+ * }
+ * REJOINING {
+ * guest connects to host
+ * guest -> host: (byte){hello} with bit 5 set, (long){session token}
+ * host -> guest: 0x00 if the token is unknown or its grace period is over; STOP
+ * host -> guest: 0x01 (int){TEAM} (int){size} (int){number of non-default team colors} {r} {g} {b}... (boolean){turn} (int){length} {run length encoded board}
+ * the game loop carries on
  * }
  * Depth first topple: top, left, right, bottom
  */
@@ -69,78 +102,111 @@ public class JCultureOL {
     private static Random prng = new Random();
     private static int team;
     private static boolean turn;
-    private static Tile[][] map;
-    private static Color[] colors = new Color[]{Bit8Color.Grey, Bit8Color.Blue, Bit8Color.Red, Bit8Color.Green, Bit8Color.Yellow, Bit8Color.Magenta, Bit8Color.Cyan, Bit8Color.DarkGreen};
-    private static int randint(int lower, int upper) {
+    private static boolean resyncing; // whether a copy of the board was asked for and has not arrived yet
+    private static Game game;
+    private static boolean parallel; // allows the wavefront topple engine on large boards
+    private static boolean stats; // prints the network cost of every move
+    private static boolean thin; // asks the host for the cells each move changed instead of toppling moves here
+    private static Renderer renderer = new Renderer(System.out, false);
+    private static RenderThread display; // draws frames off the game thread, created with the board
+    private static InterruptableInputHandler input; // line editor used for prompts in viewport mode, null otherwise
+    private static MoveSource moves = (board, mteam) -> getUserPosition(); // where this player's moves come from
+    private static final long REJOIN_WINDOW = 120000; // millis a guest keeps trying to get back to a game it lost the connection to
+    static Color[] colors = new Color[]{Bit8Color.Grey, Bit8Color.Blue, Bit8Color.Red, Bit8Color.Green, Bit8Color.Yellow, Bit8Color.Magenta, Bit8Color.Cyan, Bit8Color.DarkGreen};
+    static int randint(int lower, int upper) {
         return (int)Math.floor(prng.nextDouble() * (upper - lower) + lower);
     }
     private static void init(int size) {
-        map = new Tile[size][size];
-        for (int y = 0; y < size; y ++) {
-            for (int x = 0; x < size; x ++) {
-                map[y][x] = new Tile(0, 1, colors[0]);
-            }
-        }
+        game = new Game(size, parallel);
+        display = new RenderThread(renderer, game.board());
     }
-    private static boolean tileIsFull(int x, int y) {
-        int maxval = 4;
-        if (x == 0 || x == map[0].length - 1) {
-            maxval --;
-        }
-        if (y == 0 || y == map.length - 1) {
-            maxval --;
-        }
-        return map[y][x].value > maxval;
-    }
-    private static void setPos(int x, int y, int team) {
-        Stack<Position> pStack = new Stack<>();
-        pStack.add(new Position(x, y));
-        while (!pStack.empty()) {
-            Position pos = pStack.pop();
-            Tile til = map[pos.y][pos.x];
-            til.team = team;
-            til.color = colors[team];
-            til.value ++;
-            if (tileIsFull(pos.x, pos.y)) {
-                til.value = 1;
-                if (pos.y < map.length - 1) {
-                    pStack.add(new Position(pos.x, pos.y+1));
-                }
-                if (pos.x < map[0].length - 1) {
-                    pStack.add(new Position(pos.x+1, pos.y));
-                }
-                if (pos.x > 0) {
-                    pStack.add(new Position(pos.x-1, pos.y));
-                }
-                if (pos.y > 0) {
-                    pStack.add(new Position(pos.x, pos.y-1));
-                }
+    /**
+     * prompts the user for a line, through the raw mode line editor when viewport mode needs the arrow keys
+     */
+    static String readLine(String prompt) throws IOException {
+        if (display != null) {
+            display.awaitIdle(); // let the last frame finish so it is not drawn over the prompt
+        }
+        if (input == null && console == null) {
+            System.out.print(prompt);
+            System.out.flush();
+            String line = ScriptedMoves.stdin().nextLine(); // shared with any move script read from stdin
+            if (line == null) {
+                throw new EOFException("stdin ended at a prompt");
             }
+            return line;
         }
-    }
-    private static void displayMove(int x, int y, int mteam) {
-        System.out.println("team " + colors[mteam].toAnsi() + mteam + "\u001b[0m has made the move: " + x + ", " + y);
-    }
-    private static void displayBoard() {
+        if (input == null) {
+            return console.readLine(prompt);
+        }
+        input.makeRaw();
         try {
-            for (int y = 0; y < map.length; y ++) {
-                for (int x = 0; x < map[0].length; x ++) {
-                    System.out.print(map[y][x].color.toAnsi() + map[y][x].value + " ");
-                }
-                System.out.println();
-            }
+            return input.readLine(prompt);
         } finally {
-            System.out.print("\u001b[0m");
+            input.unmakeRaw();
         }
     }
-    private static boolean checkValidMove(int x, int y, int team) {
-        return y >= 0 && y < map.length && x >= 0 && x < map[0].length && (map[y][x].team == 0 || map[y][x].team == team);
+    /**
+     * @return the next move for this player from the console or the move script
+     */
+    static long nextMove() throws Exception {
+        return nextMove(0);
+    }
+    /**
+     * @param players number of teams taking turns, 0 where it is not known as on a guest
+     */
+    static long nextMove(int players) throws Exception {
+        long position = players > 0 ? moves.nextMove(game.board(), team, players) : moves.nextMove(game.board(), team);
+        if (stats && moves instanceof SearchMoves search) {
+            displayMessage(search.lastSearch());
+        }
+        return position;
+    }
+    static boolean isAffirmative(String resp) {
+        return resp != null && resp.toLowerCase().matches(affirmative);
+    }
+    private static boolean tileIsFull(int x, int y) {
+        return game.isFull(x, y);
+    }
+    /**
+     * @return true if the move gave the team every cell on the board
+     */
+    static boolean setPos(int x, int y, int team) {
+        return game.apply(x, y, team);
+    }
+    /**
+     * announces the winner and waits for it to reach the screen, since the game ends right after
+     */
+    static void displayWinner(int wteam) {
+        display.message("team " + colors[wteam].toAnsi() + wteam + "\u001b[0m owns the whole board and has won");
+        display.awaitIdle();
+    }
+    /**
+     * hands the move just made on the board to the render thread, which draws it together with the board
+     */
+    static void displayMove(int x, int y, int mteam) {
+        display.move(game.board(), x, y, mteam, colors);
+    }
+    /**
+     * prints a line after every frame queued before it
+     */
+    static void displayMessage(String text) {
+        display.message(text);
     }
-    private static FullColor getUserFullColor() throws Exception {
+    /**
+     * @return the board of the game being played
+     */
+    static Board board() {
+        return game.board();
+    }
+    static boolean checkValidMove(int x, int y, int team) {
+        return game.isValidMove(x, y, team);
+    }
+    static FullColor getUserFullColor() throws Exception {
         while (true) {
-            String[] line = console.readLine("enter color: ").split(",([\\s]*)");
+            String[] line = readLine("enter color: ").split(",([\\s]*)");
             if (line.length != 3) {
-                console.readLine("invalid format");
+                readLine("invalid format");
                 System.out.print(resetPrompt);
                 continue;
             }
@@ -149,22 +215,22 @@ public class JCultureOL {
                 int g = Integer.parseInt(line[1]);
                 int b = Integer.parseInt(line[2]);
                 if (r < 0 || g < 0 || b < 0 || r > 255 || g > 255 || b > 255) {
-                    console.readLine("invalid color");
+                    readLine("invalid color");
                     System.out.print(resetPrompt);
                     continue;
                 }
                 return new FullColor(r, g, b);
             } else {
-                console.readLine("at least one entry was not a number");
+                readLine("at least one entry was not a number");
                 System.out.print(resetPrompt);
             }
         }
     }
-    private static long getUserPosition() throws Exception {
+    static long getUserPosition() throws Exception {
         while (true) {
-            String[] line = console.readLine("enter position: ").split(",([\\s]*)");
+            String[] line = readLine("enter position: ").split(",([\\s]*)");
             if (line.length != 2) {
-                console.readLine("invalid format");
+                readLine("invalid format");
                 System.out.print(resetPrompt);
                 continue;
             }
@@ -172,22 +238,27 @@ public class JCultureOL {
                 int x = Integer.parseInt(line[0]);
                 int y = Integer.parseInt(line[1]);
                 if (!checkValidMove(x, y, team)) {
-                    console.readLine("invalid position");
+                    readLine("invalid position");
                     System.out.print(resetPrompt);
                     continue;
                 }
                 return (((long)y)<<32)|((long)x);
             } else {
-                console.readLine("at least one entry was not a number");
+                readLine("at least one entry was not a number");
                 System.out.print(resetPrompt);
             }
         }
     }
+    /**
+     * a connection to the host with its streams
+     */
+    private record Connection(Socket socket, DataInputStream input, DataOutputStream output) {}
+
     private static void join(Socket host) throws Exception {
-        DataInputStream input = new DataInputStream(host.getInputStream());
+        DataInputStream input = new DataInputStream(new InterruptableInputStream(host.getInputStream())); // buffered so a move frame arrives in one read
         DataOutputStream output = new DataOutputStream(host.getOutputStream());
 
-        output.writeBoolean(false);
+        output.write(Lobby.FEATURE_HASH | Lobby.FEATURE_RESUME | (thin ? Lobby.FEATURE_DIFF : 0)); // no join message, board hash after every move
 
         if (input.read() == 0x00) {
             System.out.println("host denied join request");
@@ -206,6 +277,7 @@ public class JCultureOL {
                 colors[i+8] = new FullColor(input.read(), input.read(), input.read());
             }
         }
+        final long token = input.readLong();
         { // handle other players joining
             LinkedList<Color> pColors = new LinkedList<>(); // use linked list structure for speed
             while (true) {
@@ -224,9 +296,46 @@ public class JCultureOL {
                 i ++;
             }
         }
+        Connection connection = new Connection(host, input, output);
+        try {
+            while (true) {
+                try {
+                    play(connection.input(), connection.output());
+                    return;
+                } catch (UncheckedIOException e) { // from the move source rather than the connection
+                    throw e.getCause();
+                } catch (IOException e) {
+                    displayMessage("lost the connection to the host (" + e.getMessage() + "), rejoining");
+                    if (connection.socket() != host) {
+                        connection.socket().close();
+                    }
+                    connection = rejoin(host.getInetAddress(), host.getPort(), token);
+                    if (connection == null) {
+                        displayMessage("could not get back into the game");
+                        System.exit(1);
+                    }
+                    displayMessage("back in the game" + (turn ? "" : ", please wait for other player(s)"));
+                }
+            }
+        } finally {
+            if (connection != null && connection.socket() != host) {
+                connection.socket().close();
+            }
+        }
+    }
+    /**
+     * plays the game over a connection until it is won
+     * @throws IOException if the connection is lost
+     */
+    private static void play(DataInputStream input, DataOutputStream output) throws Exception {
         while (true) { // main game loop
             if (turn) {
-                long position = getUserPosition();
+                long position;
+                try {
+                    position = nextMove();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
                 output.writeLong(position);
                 // int y = (int)(position >> 32);
                 // int x = (int)(position & 0xffffffff);
@@ -237,185 +346,351 @@ public class JCultureOL {
                 while (true) {
                     int code = input.read();
                     if (code == -1) {
-                        host.close();
-                        System.exit(1);
+                        throw new EOFException("the host closed the connection");
                     }
                     System.out.print(code + " ");
-                    if (code == 0x02) {
-                        int x = input.readInt();
-                        int y = input.readInt();
-                        int mteam = input.readInt();
-                        setPos(x, y, mteam);
-                        displayMove(x, y, mteam);
-                        displayBoard();
-                        if (input.read() == 0x01) {
-                            turn = true;
-                        } else {
-                            System.out.println("please wait for other player(s)");
+                    if (code == 0x02 || code == 0x04) {
+                        if (readMove(code, input, output)) {
+                            return;
+                        }
+                        if (resyncing) { // wait for the copy even if it is our turn, a move on the wrong board may be refused
+                            continue;
+                        }
+                        if (!turn) {
+                            displayMessage("please wait for other player(s)");
+                        }
+                        break;
+                    }
+                    if (code == 0x03) {
+                        readBoard(input);
+                        if (!turn) {
+                            displayMessage("please wait for other player(s)");
                         }
                         break;
                     }
+                    if (code == 0x05) { // the team before ours disconnected on its turn
+                        turn = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    /**
+     * connects to the host again with the session token and takes the board, color table and turn it sends back, trying every second for {@link JCultureOL#REJOIN_WINDOW}
+     * @return the new connection, null if the host turned the token down or could not be reached in time
+     */
+    private static Connection rejoin(InetAddress address, int port, long token) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + REJOIN_WINDOW;
+        while (true) {
+            Socket socket = null;
+            try {
+                socket = new Socket(address, port);
+                DataInputStream input = new DataInputStream(new InterruptableInputStream(socket.getInputStream()));
+                DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                output.write(Lobby.REJOIN | Lobby.FEATURE_HASH | Lobby.FEATURE_RESUME | (thin ? Lobby.FEATURE_DIFF : 0));
+                output.writeLong(token);
+                if (input.read() != 0x01) {
+                    socket.close();
+                    return null;
+                }
+                team = input.readInt();
+                if (input.readInt() != game.board().size) {
+                    throw new IOException("the host sent a board of another size");
+                }
+                colors = Arrays.copyOf(colors, 8);
+                addColors(input.readNBytes(3 * input.readInt()));
+                turn = input.read() == 0x01;
+                resyncing = false; // the copy that was asked for went with the old connection
+                readBoard(input);
+                return new Connection(socket, input, output);
+            } catch (IOException e) {
+                try {
+                    if (socket != null) {
+                        socket.close();
+                    }
+                } catch (IOException ignored) {}
+                if (System.currentTimeMillis() > deadline) {
+                    return null;
                 }
+                Thread.sleep(1000);
+            }
+        }
+    }
+    /**
+     * reads the rest of a 0x02 or 0x04 move frame and applies it, asking for a copy of the board if the result does not have the sender's hash
+     * @return true if the move won the game
+     */
+    private static boolean readMove(int code, DataInputStream input, DataOutputStream output) throws IOException {
+        int x = input.readInt();
+        int y = input.readInt();
+        int mteam = input.readInt();
+        turn = input.read() == 0x01;
+        long hash = input.readLong();
+        byte[] diff = code == 0x04 ? input.readNBytes(input.readInt()) : null;
+        if (resyncing) { // the copy on its way already includes this move
+            return false;
+        }
+        boolean won = diff == null ? setPos(x, y, mteam) : game.apply(diff, mteam);
+        displayMove(x, y, mteam);
+        if (won) {
+            displayWinner(mteam);
+            return true;
+        }
+        if (game.board().hash != hash) {
+            output.writeLong(HostLoop.RESYNC);
+            resyncing = true;
+            displayMessage("board differs from the host's, asking for a copy");
+        }
+        return false;
+    }
+    /**
+     * reads the rest of a 0x03 frame and replaces the board with the copy it holds
+     */
+    private static void readBoard(DataInputStream input) throws IOException {
+        Snapshot.decode(input.readNBytes(input.readInt()), game.board());
+        display.board(game.board(), colors);
+        if (resyncing) {
+            resyncing = false;
+            displayMessage("board resynchronised with the host");
+        }
+    }
+    /**
+     * draws the board of a recorded game as it was after a number of moves
+     * @param file log written by the host
+     * @param move number of moves to show the board after as given with --move, null for the end of the log
+     */
+    private static void replay(String file, String move) throws Exception {
+        long start = System.nanoTime();
+        Replay log = new Replay(Path.of(file));
+        long opened = System.nanoTime();
+        int n = move == null ? log.moves() : move.matches("^[\\d]{1,9}$") ? Integer.parseInt(move) : -1;
+        if (n < 0 || n > log.moves()) {
+            System.err.println("usage: replay FILE [--move N], N from 0 to " + log.moves() + " for this log");
+            System.exit(1);
+        }
+        Game board = new Game(log.size(), parallel);
+        Replay.Move last = log.seek(board, n);
+        long sought = System.nanoTime();
+        addColors(log.rgb());
+        if (last != null) {
+            renderer.move(last.x(), last.y(), last.team());
+        }
+        renderer.frame(board.board(), colors);
+        StringBuilder held = new StringBuilder();
+        for (int t = 1; t < board.board().teamSlots(); t ++) {
+            if (board.board().owned(t) > 0) {
+                held.append(", team ").append(t).append(" holds ").append(board.board().owned(t));
             }
         }
+        System.out.println(String.format("move %d of %d%s%nopened in %.2fms with %d checkpoints, seek took %.2fms", n, log.moves(), held, (opened - start) / 1e6, log.checkpoints(), (sought - opened) / 1e6));
+    }
+    /**
+     * appends custom team colors sent as r g b bytes to the color table
+     */
+    private static void addColors(byte[] rgb) {
+        int i = colors.length;
+        colors = Arrays.copyOf(colors, colors.length + rgb.length / 3);
+        for (int k = 0; k < rgb.length; k += 3) {
+            colors[i++] = new FullColor(rgb[k] & 0xff, rgb[k + 1] & 0xff, rgb[k + 2] & 0xff);
+        }
     }
-    private static void hostgame(int size) throws Exception {
+    /**
+     * watches a game through a host's or relay's {@link SpectatorHub} until it ends
+     */
+    private static void spectate(Socket hub) throws Exception {
+        DataInputStream input = new DataInputStream(new InterruptableInputStream(hub.getInputStream()));
+        DataOutputStream output = new DataOutputStream(hub.getOutputStream());
+        output.write(Lobby.FEATURE_SPECTATE | (thin ? Lobby.FEATURE_DIFF : 0));
+        if (input.read() != 0x01) {
+            System.out.println("no game to watch there");
+            return;
+        }
+        init(input.readInt());
+        addColors(input.readNBytes(3 * input.readInt()));
+        while (true) {
+            int code = input.read();
+            if (code == -1) {
+                System.out.println("the game ended or the connection was lost");
+                return;
+            }
+            if (code == 0x03) {
+                readBoard(input);
+            } else if ((code == 0x02 || code == 0x04) && readMove(code, input, output)) {
+                return;
+            }
+        }
+    }
+    /**
+     * @param spectate port to take spectators on once the game starts, 0 for none
+     * @param logFile file to record the game in, null for none
+     * @param grace seconds a disconnected guest may take to come back
+     */
+    private static void hostgame(int size, Lobby.Admission admission, int startCount, int startAfter, int spectate, String logFile, int grace) throws Exception {
         init(size);
-        boolean turn = true;
-        int cturn = 1;
-        ServerSocket server = new ServerSocket(14650);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(14650), 1024); // room for a burst of guests joining at once
         team = 1;
-        LinkedList<Socket> playerSockets = new LinkedList<>();
-        try {
-        LinkedList<DataInputStream> pIns = new LinkedList<>();
-        LinkedList<DataOutputStream> pOuts = new LinkedList<>();
-        int pCount;
+        Lobby lobby = new Lobby(server, size, colors, admission, startCount, startAfter, true);
+        Lobby.Guest[] guests = lobby.run();
+        colors = lobby.colors();
+        SocketChannel[] playerSockets = new SocketChannel[guests.length];
+        for (int i = 0; i < guests.length; i ++) {
+            playerSockets[i] = guests[i].channel();
+        }
         Runtime.getRuntime().addShutdownHook(new Thread(){
             public void run() {
-                for (Socket sock : playerSockets) {
+                for (SocketChannel sock : playerSockets) {
                     try {
                     sock.close();
                     }catch(Exception _E) {}
                 }
             } 
         });
-        try { // setup players
-            int i = 0;
-            while (true) { // accept new players
-                Socket connection = server.accept();
-                DataInputStream cIn = new DataInputStream(connection.getInputStream());
-                DataOutputStream cOut = new DataOutputStream(connection.getOutputStream()); // get data streams
-                String usrResp; // used to check host input
-                if (cIn.readBoolean()) { // if guest is sending a message
-                    usrResp = console.readLine("incoming join request from \"" + connection.getRemoteSocketAddress() + "\" (" + new String(cIn.readNBytes(cIn.readInt()), StandardCharsets.UTF_16BE) + ")\nACCEPT (y/N) ");
-                } else {
-                    usrResp = console.readLine("incoming join request from \"" + connection.getRemoteSocketAddress() + "\" (NO MESSAGE)\nACCEPT (y/N) ");
-                }
-                if (usrResp.toLowerCase().matches(affirmative)) { // check if host accepts the join request
-                    cOut.write(0x01);
-                    cOut.writeInt(i+2); // player team
-                    cOut.writeInt(size); // board size
-                    if ((i + 2) > 7) { // if all default colors are used
-                        usrResp = console.readLine("preset colors are all in use, would you like to input a color? (y/N) ");
-                        FullColor color;
-                        if (usrResp.toLowerCase().matches(affirmative)) { // ask if host wants to manually assign a color
-                            color = getUserFullColor(); // get manual color
-                        } else {
-                            color = new FullColor(randint(150, 200), randint(150, 200), randint(150, 200)); // generate a random mid-intensity color
-                        }
-                        colors = Arrays.copyOf(colors, colors.length + 1); // add color to color list
-                        colors[i+2] = color;
-                        for (DataOutputStream pOut : pOuts) { // update all current players that there is a new color
-                            pOut.write(0x01);
-                            pOut.write(color.r);
-                            pOut.write(color.g);
-                            pOut.write(color.b);
-                        }
-                    }
-                    cOut.writeInt(Math.max(0, colors.length - 8)); // give guest number of non-default colors
-                    if (colors.length > 8) {
-                        for (int j = 8; j < colors.length; j ++) { // iterate over custom colors
-                            FullColor c = (FullColor) colors[j];
-                            cOut.write(c.r);
-                            cOut.write(c.g);
-                            cOut.write(c.b); // transmit color
-                        }
-                    }
-                    playerSockets.add(connection);
-                    pIns.add(cIn);
-                    pOuts.add(cOut); // add player to list
-                    i ++; // increment next team
-                    usrResp = console.readLine(i + " other players present, would you like to start now? (y/N) ");
-                    if (usrResp.matches(affirmative)) { // check if host wants to start game
-                        pCount = i + 2;
-                        break;
-                    }
-                } else { // deny join request
-                    cOut.write(0x00);
-                    connection.close();
-                }
-            }
-        } finally {
-            server.close(); // close server so that attempts to join don't hang the guest client
+        SpectatorHub spectators = null;
+        if (spectate > 0) {
+            ServerSocketChannel watchers = ServerSocketChannel.open();
+            watchers.bind(new InetSocketAddress(spectate), 1024);
+            spectators = new SpectatorHub(watchers, size, SpectatorHub.rgb(colors), null);
         }
-        for (DataOutputStream out : pOuts) {
-            out.write(0x02);
-        }
-        while (true) {
-            int oturn = cturn;
-            int x;
-            int y;
-            if (turn) {
-                long position = getUserPosition();
-                y = (int)(position >> 32);
-                x = (int)(position & 0xffffffff);
-                setPos(x, y, team);
-                turn = false;
-                cturn = Math.max(1, (cturn+1)%pCount);
-                System.out.println(cturn);
-                int tracker = 0;
-                for (DataOutputStream out : pOuts) {
-                    out.write(0x02);
-                    out.writeInt(x);
-                    out.writeInt(y);
-                    out.writeInt(oturn);
-                    if (tracker + 2 == cturn) {
-                        out.write(0x01);
-                    } else {
-                        out.write(0x00);
-                    }
-                    tracker ++;
-                }
-            } else {
-                DataInputStream pIn = pIns.get(cturn - 2);
-                DataOutputStream pOut = pOuts.get(cturn - 2);
-                y = pIn.readInt();
-                x = pIn.readInt();
-                if (!checkValidMove(x, y, cturn)) {
-                    pOut.write(0x00);
-                    continue;
-                }
-                pOut.write(0x01);
-                setPos(x, y, cturn);
-                int tracker = 0;
-                cturn = Math.max(1, (cturn+1)%pCount);
-                for (DataOutputStream out : pOuts) {
-                    // if (tracker + 2 == oturn) {
-                    //     out.write(0x00);
-                    //     tracker ++;
-                    //     continue;
-                    // }
-                    out.write(0x02);
-                    out.writeInt(x);
-                    out.writeInt(y);
-                    out.writeInt(oturn);
-                    if (tracker + 2 == cturn) {
-                        out.write(0x01);
-                    } else {
-                        out.write(0x00);
-                    }
-                    tracker ++;
-                }
+        GameLog log = logFile == null ? null : new GameLog(Path.of(logFile), size, colors);
+        try {
+            HostLoop loop = new HostLoop(new Screen(), guests, new EventLoop(), stats, spectators, log, grace);
+            lobby.onRejoin(loop::rejoin);
+            try {
+                loop.run();
+            } catch (EOFException e) { // nothing left to play
+                System.err.println(e.getMessage());
+                System.exit(1);
             }
-            displayMove(x, y, oturn);
-            displayBoard();
-            if (cturn == 1) {
-                turn = true;
+            if (stats) {
+                System.out.println("broadcast: " + loop.stats());
             }
-        }
         } finally {
-            for (Socket socket : playerSockets) {
+            lobby.close();
+            if (log != null) {
+                log.close();
+            }
+            if (spectators != null) {
+                spectators.close();
+                if (stats) {
+                    System.out.println("spectators: " + spectators.stats());
+                }
+            }
+            for (SocketChannel socket : playerSockets) {
                 socket.close();
             }
         }
     }
+    /**
+     * the game this process hosts, played and shown on the console
+     */
+    private static final class Screen implements HostLoop.Table {
+        @Override
+        public Game game() {
+            return game;
+        }
+        @Override
+        public Color[] colors() {
+            return colors;
+        }
+        @Override
+        public long nextMove(int players) throws Exception {
+            return JCultureOL.nextMove(players);
+        }
+        @Override
+        public void move(int x, int y, int mteam) {
+            displayMove(x, y, mteam);
+        }
+        @Override
+        public void message(String text) {
+            displayMessage(text);
+        }
+        @Override
+        public void winner(int wteam) {
+            displayWinner(wteam);
+        }
+    }
     private static void dbTest() throws Exception {
         init(8);
         team = 1;
         long pos = getUserPosition();
         System.out.println((pos >> 32) + " " + (pos & 0xffffffff));
     }
+    /**
+     * draws only the part of the board that fits the terminal, shift with an arrow key at a prompt scrolls it as the plain arrows edit the line and recall earlier input
+     */
+    private static void viewport() {
+        input = new InterruptableInputHandler(System.in, System.out);
+        int[] tsize = input.getTerminalSize();
+        renderer.setViewport(tsize[0], tsize[1]);
+        int rstep = Math.max(1, (tsize[0] - 4) / 4);
+        int cstep = Math.max(1, tsize[1] / 8);
+        input.setEscapeListener((sequence, finalc) -> {
+            boolean shifted = sequence.contains(";");
+            switch (finalc) {
+                case ('A'):
+                    if (shifted) {
+                        renderer.scroll(0, -rstep);
+                    }
+                    return shifted;
+                case ('B'):
+                    if (shifted) {
+                        renderer.scroll(0, rstep);
+                    }
+                    return shifted;
+                case ('C'):
+                    if (shifted) {
+                        renderer.scroll(cstep, 0);
+                    }
+                    return shifted;
+                case ('D'):
+                    if (shifted) {
+                        renderer.scroll(-cstep, 0);
+                    }
+                    return shifted;
+                default:
+                    return false;
+            }
+        });
+    }
+    private static boolean hasFlag(String[] args, String flag) {
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase(flag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * @return the argument following the named option, or the default if the option is absent
+     */
+    private static String option(String[] args, String name, String def) {
+        for (int i = 0; i < args.length - 1; i ++) {
+            if (args[i].equalsIgnoreCase(name)) {
+                return args[i + 1];
+            }
+        }
+        return def;
+    }
     public static void main(String[] args) throws Exception {
+        parallel = hasFlag(args, "--parallel");
+        stats = hasFlag(args, "--stats");
+        thin = hasFlag(args, "--thin");
+        if (hasFlag(args, "--delta")) {
+            renderer = new Renderer(System.out, true);
+        }
+        String script = option(args, "--moves", null);
+        if (hasFlag(args, "--viewport")) {
+            if ("-".equals(script)) { // the line editor reads stdin on its own thread, it would take bytes meant for the script
+                System.err.println("--viewport reads the terminal, it cannot be used with --moves -");
+                return;
+            }
+            viewport();
+        }
+        if (script != null) {
+            moves = MoveSource.parse(script);
+        }
         if (args.length == 0 || args[0].equalsIgnoreCase("--help")) {
             return;
         }
@@ -424,7 +699,39 @@ public class JCultureOL {
             return;
         }
         if (args[0].equalsIgnoreCase("host")) {
-            hostgame(args.length > 1 && args[1].matches("^[\\d]+$") ? Integer.parseInt(args[1]) : 8);
+            hostgame(args.length > 1 && args[1].matches("^[\\d]+$") ? Integer.parseInt(args[1]) : 8, Lobby.Admission.parse(option(args, "--accept", "manual")), Integer.parseInt(option(args, "--start-count", "0")), Integer.parseInt(option(args, "--start-after", "0")), Integer.parseInt(option(args, "--spectate", "0")), option(args, "--log", null), Integer.parseInt(option(args, "--grace", "120")));
+            return;
+        }
+        if (args[0].equalsIgnoreCase("rooms")) {
+            new RoomServer(Integer.parseInt(option(args, "--port", "14650")), args.length > 1 && args[1].matches("^[\\d]+$") ? Integer.parseInt(args[1]) : 8, Integer.parseInt(option(args, "--players", "3")), Integer.parseInt(option(args, "--start-after", "10")), option(args, "--house", "random"), Integer.parseInt(option(args, "--grace", "120")), Integer.parseInt(option(args, "--threads", Integer.toString(Runtime.getRuntime().availableProcessors()))), stats).run();
+            return;
+        }
+        if (args[0].equalsIgnoreCase("simulate")) {
+            for (String size : option(args, "--size", "8").split(",")) {
+                int n = Integer.parseInt(size);
+                new Simulator(n, Integer.parseInt(option(args, "--players", "2")), Long.parseLong(option(args, "--games", "100000")), Integer.parseInt(option(args, "--threads", Integer.toString(Runtime.getRuntime().availableProcessors()))), Integer.parseInt(option(args, "--max-moves", Integer.toString(n * n * 50))), option(args, "--strategy", "random").split(",")).run();
+            }
+            return;
+        }
+        if (args[0].equalsIgnoreCase("loadtest")) {
+            new LoadClient(args[1].split(":")[0], Integer.parseInt(args[1].split(":")[1]), Integer.parseInt(option(args, "--players", "100")), option(args, "--strategy", "random")).run(Integer.parseInt(option(args, "--duration", "0")));
+            return;
+        }
+        if (args[0].equalsIgnoreCase("spectate")) {
+            Socket hub = new Socket(args[1].split(":")[0], Integer.parseInt(args[1].split(":")[1]));
+            try {
+                spectate(hub);
+            } finally {
+                hub.close();
+            }
+            return;
+        }
+        if (args[0].equalsIgnoreCase("replay")) {
+            replay(args[1], option(args, "--move", null));
+            return;
+        }
+        if (args[0].equalsIgnoreCase("relay")) {
+            new Relay(args[1].split(":")[0], Integer.parseInt(args[1].split(":")[1]), Integer.parseInt(option(args, "--listen", "14651"))).run();
             return;
         }
         if (args[0].equalsIgnoreCase("join")) {
@@ -438,17 +745,6 @@ public class JCultureOL {
         }
     }
 }
-class Position {
-    int x;
-    int y;
-    Position (int x, int y) {
-        this.x = x;
-        this.y = y;
-    }
-}
-interface Color {
-    String toAnsi();
-}
 enum Bit8Color implements Color {
     Grey(8),
     Red(9),
@@ -459,33 +755,12 @@ enum Bit8Color implements Color {
     Magenta(13),
     Cyan(14);
     private int color;
+    private final String ansi;
     Bit8Color (int color) {
         this.color = color;
+        this.ansi = "\u001b[38;5;" + color + "m";
     }
     public String toAnsi () {
-        return "\u001b[38;5;" + color + "m";
-    }
-}
-class FullColor implements Color {
-    int r;
-    int g;
-    int b;
-    FullColor (int r, int g, int b) {
-        this.r = r;
-        this.g = g;
-        this.b = b;
-    }
-    public String toAnsi () {
-        return "\u001b[38;2;" + r + ";" + g + ";" + b + "m";
+        return ansi;
     }
 }
-class Tile {
-    int team;
-    int value;
-    Color color;
-    Tile (int team, int value, Color color) {
-        this.team = team;
-        this.value = value;
-        this.color = color;
-    }
-}
\ No newline at end of file
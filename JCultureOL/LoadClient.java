@@ -0,0 +1,223 @@
+package JCultureOL;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * headless guests for load testing a host, every simulated player speaks the normal join and turn protocol on a virtual thread of its own
+ * <p>
+ * each player keeps its own board so its strategy only picks valid moves, and times every move from sending it to receiving the frame that confirms it
+ */
+final class LoadClient {
+    private final String host;
+    private final int port;
+    private final int players;
+    private final String strategy;
+    private final LongAdder frames = new LongAdder(); // frames received over all players
+    private final LongAdder seated = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final ArrayList<long[]> latencies = new ArrayList<>(); // round trips in nanos from each finished player
+    private final ArrayList<Socket> sockets = new ArrayList<>();
+    private final LongAccumulator firstMove = new LongAccumulator(Math::min, Long.MAX_VALUE); // nano times bounding the game
+    private final LongAccumulator lastMove = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private final LongAccumulator moves = new LongAccumulator(Math::max, 0); // game moves seen by the player that saw the most
+    private volatile boolean stopped; // whether the time ran out and the remaining sockets are being closed
+
+    /**
+     * @param host address of the host
+     * @param port port of the host
+     * @param players number of simulated guests
+     * @param strategy move source spec for {@link MoveSource#parse(String)}, each player gets its own
+     */
+    LoadClient(String host, int port, int players, String strategy) {
+        this.host = host;
+        this.port = port;
+        this.players = players;
+        this.strategy = strategy;
+    }
+    /**
+     * connects every player and plays until the game ends or the time runs out, then prints a report
+     * @param seconds longest time to run, 0 to wait for the game to end
+     */
+    void run(int seconds) throws Exception {
+        Thread[] threads = new Thread[players];
+        for (int p = 0; p < players; p ++) {
+            MoveSource source = MoveSource.parse(strategy);
+            threads[p] = Thread.ofVirtual().name("load-" + p).start(() -> play(source));
+        }
+        long deadline = seconds > 0 ? System.currentTimeMillis() + seconds * 1000L : 0;
+        for (Thread thread : threads) {
+            if (deadline == 0) {
+                thread.join();
+            } else if (!thread.join(Duration.ofMillis(Math.max(1, deadline - System.currentTimeMillis())))) {
+                break;
+            }
+        }
+        stopped = true;
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close(); // ends any player still waiting
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println(report());
+    }
+    private void play(MoveSource source) {
+        LongList rtts = new LongList();
+        try (Socket socket = connect()) {
+            synchronized (sockets) {
+                if (stopped) {
+                    return;
+                }
+                sockets.add(socket);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64));
+            out.writeBoolean(false); // no join message
+            out.flush();
+            if (in.read() != 0x01) {
+                denied.increment();
+                return;
+            }
+            int team = in.readInt();
+            int size = in.readInt();
+            in.skipNBytes(3L * in.readInt()); // custom colors are of no use without a screen
+            while (true) {
+                int code = in.read();
+                if (code == 0x02) {
+                    break;
+                }
+                if (code == 0x01) {
+                    in.skipNBytes(3);
+                } else if (code == -1) {
+                    return;
+                }
+            }
+            seated.increment();
+            Game game = new Game(size, false);
+            Board board = game.board();
+            boolean turn = false; // the host always moves first
+            long sent = 0;
+            long seen = 0;
+            while (true) {
+                if (turn) {
+                    long position = source.nextMove(board, team);
+                    sent = System.nanoTime();
+                    out.writeLong(position);
+                    out.flush();
+                    if (in.read() != 0x01) { // both sides run the same rules, so this only happens if the strategy is broken
+                        throw new IOException("team " + team + " sent an invalid move");
+                    }
+                    turn = false;
+                }
+                int code = in.read();
+                if (code == -1) {
+                    return;
+                }
+                int x = in.readInt();
+                int y = in.readInt();
+                int mteam = in.readInt();
+                turn = in.read() == 0x01;
+                long now = System.nanoTime();
+                if (mteam == team && sent != 0) {
+                    rtts.add(now - sent);
+                    sent = 0;
+                }
+                frames.increment();
+                firstMove.accumulate(now);
+                lastMove.accumulate(now);
+                moves.accumulate(++ seen);
+                if (game.apply(x, y, mteam)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                failed.increment();
+            }
+        } catch (Exception e) {
+            failed.increment();
+            e.printStackTrace();
+        } finally {
+            synchronized (latencies) {
+                latencies.add(Arrays.copyOf(rtts.data, rtts.size));
+            }
+        }
+    }
+    /**
+     * connects with a few retries, a burst of hundreds of connections can overflow the host's accept backlog
+     */
+    private Socket connect() throws IOException {
+        for (int attempt = 0; ; attempt ++) {
+            try {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (ConnectException e) {
+                if (attempt == 10) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(50L << Math.min(attempt, 5));
+                } catch (InterruptedException _E) {
+                    throw e;
+                }
+            }
+        }
+    }
+    private String report() {
+        int n = 0;
+        for (long[] l : latencies) {
+            n += l.length;
+        }
+        long[] all = new long[n];
+        int k = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, k, l.length);
+            k += l.length;
+        }
+        Arrays.sort(all);
+        long timed = moves.get();
+        double seconds = timed == 0 ? 1e-9 : Math.max(1, lastMove.get() - firstMove.get()) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(players).append(" players: ").append(seated.sum()).append(" seated, ").append(denied.sum()).append(" denied, ").append(failed.sum()).append(" dropped\n");
+        sb.append(String.format("%d moves in %.2fs, %.1f moves/s, %.1f frames/s received%n", timed, seconds, timed / seconds, frames.sum() / seconds));
+        if (n == 0) {
+            sb.append("no moves were timed");
+        } else {
+            sb.append(String.format("round trip over %d moves: p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms", n, percentile(all, 50), percentile(all, 90), percentile(all, 99), all[n - 1] / 1e6));
+        }
+        return sb.toString();
+    }
+    private static double percentile(long[] sorted, int p) {
+        return sorted[Math.min(sorted.length - 1, (int)((long)sorted.length * p / 100))] / 1e6;
+    }
+
+    /**
+     * growable list of longs
+     */
+    private static final class LongList {
+        long[] data = new long[64];
+        int size;
+
+        void add(long v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = v;
+        }
+    }
+}
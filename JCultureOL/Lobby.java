@@ -0,0 +1,484 @@
+package JCultureOL;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * collects guests before a game starts, every pending connection does its handshake on its own virtual thread so one slow guest or undecided request never holds up the rest
+ * <p>
+ * seating a guest and picking its color happen under one lock, which is never held across a prompt or a socket write. policies that do not ask the host are decided under it, a policy that does is asked before it is taken. what a guest is sent is queued under the lock and written after it is released, in the order it was queued, so every guest sees the same color table and one stalled socket or open prompt holds up nobody else. the host's prompts take a lock of their own so only one question is on the console at a time
+ * <p>
+ * the lobby keeps accepting connections after the game starts, new guests are turned away and guests coming back with the session token they were given at join are handed to whoever was set with {@link Lobby#onRejoin(Rejoin)}
+ * <p>
+ * a lobby without a server of its own is handed connections by a {@link RoomServer}, starts its game on its own once the start condition is met and passes guests it has no room for on to the next lobby
+ */
+final class Lobby {
+    static final int HELLO_MESSAGE = 0x01; // bit of the first byte a guest sends, set if a join message follows
+    static final int FEATURE_HASH = 0x02; // bit of the first byte, set if the guest wants the board hash after every move frame
+    static final int FEATURE_DIFF = 0x04; // bit of the first byte, set if the guest wants the cells each move changed rather than topple the move itself
+    static final int FEATURE_SPECTATE = 0x08; // bit of the first byte, set by spectators, which connect to a {@link SpectatorHub} rather than the lobby, which refuses them
+    static final int FEATURE_RESUME = 0x10; // bit of the first byte, set if the guest wants a session token to come back with and understands turn passes
+    static final int REJOIN = 0x20; // bit of the first byte, set if a (long){token} follows and the guest is coming back to its seat
+
+    private final ServerSocketChannel server; // null if connections are handed over
+    private final int size;
+    private final boolean attended; // whether the host is asked before the game starts
+    private Color[] colors;
+    private final Admission admission;
+    private final int startCount; // number of guests that starts the game, 0 if unset
+    private final int startAfter;
+    private long deadline; // time in millis after which the game starts, 0 if unset
+    private final ReentrantLock lock = new ReentrantLock(); // guards the seats, colors and start state, a lock rather than a monitor so a virtual thread waiting on it does not pin its carrier
+    private final Condition changed = lock.newCondition(); // signalled when a guest is seated
+    private final ReentrantLock prompts = new ReentrantLock(); // held while the host is asked something
+    private final ArrayList<Seat> seated = new ArrayList<>();
+    private int promptedAt = 0; // number of guests seated when the host was last asked to start
+    private boolean started = false;
+    private final SecureRandom tokens = new SecureRandom();
+    private Thread acceptor;
+    private volatile Rejoin rejoin;
+    private Supplier<Lobby> successor; // makes the lobby that takes the guests this one has no room for, null to turn them away
+    private Lobby next;
+
+    /**
+     * a seated guest
+     * @param channel connection to the guest
+     * @param features protocol feature bits the guest asked for
+     * @param token session token to come back with, sent only if the guest asked for {@link Lobby#FEATURE_RESUME}
+     */
+    record Guest(SocketChannel channel, int features, long token) {
+        boolean has(int feature) {
+            return (features & feature) != 0;
+        }
+    }
+
+    /**
+     * a seated guest and the bytes queued for it
+     */
+    private static final class Seat {
+        final Guest guest;
+        final DataOutputStream out;
+        final ByteArrayOutputStream pending = new ByteArrayOutputStream(); // written under the lobby lock
+        final DataOutputStream queue = new DataOutputStream(pending);
+        final ReentrantLock writing = new ReentrantLock(); // keeps the flushes to one guest in order
+
+        Seat(Guest guest, DataOutputStream out) {
+            this.guest = guest;
+            this.out = out;
+        }
+    }
+
+    /**
+     * takes guests coming back to a running game
+     */
+    interface Rejoin {
+        /**
+         * called on the connection's own thread, the channel is still blocking
+         * @param channel connection of the returning guest
+         * @param token session token it sent
+         * @param features protocol feature bits it asked for this time
+         */
+        void rejoin(SocketChannel channel, long token, int features);
+    }
+
+    /**
+     * decides which join requests are accepted
+     */
+    interface Admission {
+        /**
+         * @param address remote address of the guest
+         * @param message message sent with the request, null if there was none
+         * @param seated number of guests already seated
+         * @return true if the guest may join
+         */
+        boolean admit(SocketAddress address, String message, int seated) throws Exception;
+        /**
+         * @return true if the policy asks the host at the console, who is then also asked before a custom color is generated. other policies must answer at once without blocking, they are asked under the lobby lock
+         */
+        default boolean asksHost() {
+            return false;
+        }
+        /**
+         * parses an admission policy
+         * @param spec <code>manual</code>, <code>auto:N</code> to accept the first N guests or <code>allow:FILE</code> to accept hosts listed one per line in a file
+         * @return the policy
+         * @throws IOException if the allowlist cannot be read
+         */
+        static Admission parse(String spec) throws IOException {
+            if (spec == null || spec.equalsIgnoreCase("manual")) {
+                return new Manual();
+            }
+            if (spec.toLowerCase().startsWith("auto:")) {
+                int limit = Integer.parseInt(spec.substring(5));
+                return (address, message, seated) -> seated < limit;
+            }
+            if (spec.toLowerCase().startsWith("allow:")) {
+                Set<String> allowed = new HashSet<>();
+                for (String line : Files.readAllLines(Path.of(spec.substring(6)))) {
+                    if (!line.isBlank()) {
+                        allowed.add(line.strip());
+                    }
+                }
+                return (address, message, seated) -> allowed.contains(hostOf(address));
+            }
+            throw new IllegalArgumentException("unknown admission policy \"" + spec + "\"");
+        }
+    }
+
+    /**
+     * asks the host about every join request
+     */
+    private static final class Manual implements Admission {
+        @Override
+        public boolean admit(SocketAddress address, String message, int seated) throws IOException {
+            return JCultureOL.isAffirmative(JCultureOL.readLine("incoming join request from \"" + address + "\" (" + (message == null ? "NO MESSAGE" : message) + ")\nACCEPT (y/N) "));
+        }
+        @Override
+        public boolean asksHost() {
+            return true;
+        }
+    }
+
+    /**
+     * @param server listening channel, closed by {@link Lobby#close()}, or null if connections are handed to {@link Lobby#handshake(SocketChannel)}
+     * @param size board size sent to guests
+     * @param colors color table the guests' colors are added to, it is copied
+     * @param admission decides which guests are accepted
+     * @param startCount number of seated guests at which the host is offered the start, 0 if unset
+     * @param startAfter seconds after which the host is offered the start, 0 if unset. with neither set the host is asked after every join. an unattended lobby counts from its first guest
+     * @param attended whether the host is asked to start the game, otherwise it starts as soon as the start condition is met
+     */
+    Lobby(ServerSocketChannel server, int size, Color[] colors, Admission admission, int startCount, int startAfter, boolean attended) {
+        this.server = server;
+        this.size = size;
+        this.colors = colors.clone();
+        this.admission = admission;
+        this.startCount = startCount;
+        this.startAfter = startAfter;
+        this.attended = attended;
+        this.deadline = startAfter > 0 && attended ? System.currentTimeMillis() + startAfter * 1000L : 0;
+    }
+    /**
+     * accepts guests until the host starts the game, connections are still accepted afterwards until {@link Lobby#close()}
+     * @return the seated guests in team order, the first is team 2
+     */
+    Guest[] run() throws Exception {
+        if (server != null) {
+            acceptor = Thread.ofVirtual().name("lobby-accept").start(() -> {
+                try {
+                    while (true) {
+                        SocketChannel channel = server.accept(); // channels start out blocking, the game loop switches them over once everyone has joined
+                        Thread.ofVirtual().name("lobby-" + channel.getRemoteAddress()).start(() -> handshake(channel));
+                    }
+                } catch (IOException e) {} // the server is closed when the game ends
+            });
+        }
+        try {
+            while (true) {
+                String summary;
+                lock.lock();
+                try {
+                    while (!ready()) {
+                        long wait = deadline - System.currentTimeMillis();
+                        if (deadline > 0 && wait > 0) {
+                            changed.await(wait, TimeUnit.MILLISECONDS);
+                        } else {
+                            changed.await();
+                        }
+                    }
+                    promptedAt = seated.size();
+                    if (!attended) {
+                        started = true;
+                        break;
+                    }
+                    summary = summary();
+                } finally {
+                    lock.unlock();
+                }
+                if (ask(summary)) {
+                    lock.lock();
+                    try {
+                        started = true; // guests seated while the host answered start with the rest
+                    } finally {
+                        lock.unlock();
+                    }
+                    break;
+                }
+            }
+            Seat[] seats;
+            lock.lock();
+            try {
+                seats = seated.toArray(new Seat[0]);
+                for (Seat seat : seats) {
+                    seat.queue.write(0x02);
+                }
+            } finally {
+                lock.unlock();
+            }
+            Guest[] guests = new Guest[seats.length];
+            for (int i = 0; i < seats.length; i ++) {
+                flush(seats[i]);
+                guests[i] = seats[i].guest;
+            }
+            return guests;
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+    }
+    /**
+     * asks the host whether to start
+     * @return true if the game should start
+     */
+    private boolean ask(String summary) throws IOException {
+        prompts.lock();
+        try {
+            String resp = JCultureOL.readLine(summary);
+            return hasCondition() ? resp.isBlank() || JCultureOL.isAffirmative(resp) : JCultureOL.isAffirmative(resp);
+        } finally {
+            prompts.unlock();
+        }
+    }
+    /**
+     * sets who takes guests coming back to the running game, until then they are turned away
+     */
+    void onRejoin(Rejoin rejoin) {
+        this.rejoin = rejoin;
+    }
+    /**
+     * sets how the lobby that seats guests once this one is full or has started is made
+     */
+    void followedBy(Supplier<Lobby> successor) {
+        lock.lock();
+        try {
+            this.successor = successor;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * @return the lobby after this one, made now if no guest has needed it yet, null if there is none
+     */
+    Lobby next() {
+        lock.lock();
+        try {
+            if (next == null && successor != null) {
+                next = successor.get();
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * @return the color table with every seated guest's color
+     */
+    Color[] colors() {
+        lock.lock();
+        try {
+            return colors;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * stops accepting connections
+     */
+    void close() throws IOException, InterruptedException {
+        if (server == null) {
+            return;
+        }
+        server.close();
+        if (acceptor != null) {
+            acceptor.join();
+        }
+    }
+    private boolean hasCondition() {
+        return startCount > 0 || deadline > 0;
+    }
+    private boolean ready() {
+        int n = seated.size();
+        if (n <= promptedAt) {
+            return false;
+        }
+        return !hasCondition() || (startCount > 0 && n >= startCount) || (deadline > 0 && System.currentTimeMillis() >= deadline);
+    }
+    private String summary() {
+        StringJoiner players = new StringJoiner(", ");
+        for (int i = 0; i < seated.size(); i ++) {
+            players.add("team " + (i + 2) + " " + addressOf(seated.get(i).guest.channel()));
+        }
+        return seated.size() + " other players present (" + players + "), would you like to start now? " + (hasCondition() ? "(Y/n) " : "(y/N) ");
+    }
+    /**
+     * reads a join request and seats the guest if the admission policy accepts it, on the connection's own thread
+     */
+    void handshake(SocketChannel channel) {
+        try {
+            DataInputStream cIn = new DataInputStream(channel.socket().getInputStream());
+            DataOutputStream cOut = new DataOutputStream(channel.socket().getOutputStream());
+            int hello = cIn.readUnsignedByte(); // older guests send a boolean, which is the message bit alone
+            if ((hello & FEATURE_SPECTATE) != 0) { // meant for the spectator port, never seated as a player
+                cOut.write(0x00);
+                channel.close();
+                return;
+            }
+            if ((hello & REJOIN) != 0) {
+                long token = cIn.readLong();
+                Rejoin taker = rejoin;
+                if (taker == null) {
+                    cOut.write(0x00);
+                    channel.close();
+                } else {
+                    taker.rejoin(channel, token, hello & ~REJOIN);
+                }
+                return;
+            }
+            String message = null;
+            if ((hello & HELLO_MESSAGE) != 0) { // if guest is sending a message
+                message = new String(cIn.readNBytes(cIn.readInt()), StandardCharsets.UTF_16BE);
+            }
+            if (!seat(channel, cOut, message, hello & ~HELLO_MESSAGE)) { // deny join request
+                cOut.write(0x00);
+                channel.close();
+            }
+        } catch (Exception e) {
+            try {
+                channel.close();
+            } catch (IOException _E) {}
+        }
+    }
+    /**
+     * asks the admission policy, then assigns the next team and its color and sends the guest everything it needs to join. the policy and any color prompt are asked before the lobby lock is taken
+     * @param features feature bits from the guest's first byte
+     * @return false if the guest was turned away
+     */
+    private boolean seat(SocketChannel channel, DataOutputStream cOut, String message, int features) throws Exception {
+        int count;
+        lock.lock();
+        try {
+            count = started ? -1 : seated.size();
+        } finally {
+            lock.unlock();
+        }
+        FullColor asked = null;
+        boolean admitted = count >= 0; // a policy that does not ask the host decides under the lobby lock below
+        if (admitted && admission.asksHost()) {
+            prompts.lock();
+            try {
+                admitted = admission.admit(channel.getRemoteAddress(), message, count);
+                if (admitted && count + 2 > 7 && JCultureOL.isAffirmative(JCultureOL.readLine("preset colors are all in use, would you like to input a color? (y/N) "))) {
+                    asked = JCultureOL.getUserFullColor(); // get manual color
+                }
+            } finally {
+                prompts.unlock();
+            }
+        }
+        Seat seat = null;
+        ArrayList<Seat> told = new ArrayList<>();
+        lock.lock();
+        try {
+            if (admitted && !started && (admission.asksHost() || admission.admit(channel.getRemoteAddress(), message, seated.size()))) { // asked here so a policy that counts seats sees a count that cannot change
+                int team = seated.size() + 2;
+                if (team > 7) { // if all default colors are used
+                    FullColor color = asked != null ? asked : new FullColor(JCultureOL.randint(150, 200), JCultureOL.randint(150, 200), JCultureOL.randint(150, 200)); // generate a random mid-intensity color
+                    colors = Arrays.copyOf(colors, colors.length + 1); // add color to color list
+                    colors[team] = color;
+                    for (Seat other : seated) { // update all current players that there is a new color
+                        other.queue.write(0x01);
+                        other.queue.write(color.r);
+                        other.queue.write(color.g);
+                        other.queue.write(color.b);
+                        told.add(other);
+                    }
+                }
+                long token = (features & FEATURE_RESUME) != 0 ? tokens.nextLong() : 0;
+                seat = new Seat(new Guest(channel, features, token), cOut);
+                seat.queue.write(0x01);
+                seat.queue.writeInt(team); // player team
+                seat.queue.writeInt(size); // board size
+                seat.queue.writeInt(Math.max(0, colors.length - 8)); // give guest number of non-default colors
+                for (int j = 8; j < colors.length; j ++) { // iterate over custom colors
+                    FullColor c = (FullColor) colors[j];
+                    seat.queue.write(c.r);
+                    seat.queue.write(c.g);
+                    seat.queue.write(c.b); // transmit color
+                }
+                if ((features & FEATURE_RESUME) != 0) {
+                    seat.queue.writeLong(token);
+                }
+                seated.add(seat);
+                if (!attended && startAfter > 0 && deadline == 0) {
+                    deadline = System.currentTimeMillis() + startAfter * 1000L;
+                }
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (seat == null) {
+            Lobby next = next();
+            return next != null && next.seat(channel, cOut, message, features);
+        }
+        flush(seat); // a guest whose socket fails from here on is already seated, the game loop drops it like any other disconnect
+        for (Seat other : told) {
+            try {
+                flush(other);
+            } catch (IOException e) {} // noticed by the game loop once it starts
+        }
+        return true;
+    }
+    /**
+     * writes everything queued for a guest, blocking only the calling thread if its socket is stalled
+     */
+    private void flush(Seat seat) throws IOException {
+        seat.writing.lock();
+        try {
+            byte[] data;
+            lock.lock();
+            try {
+                data = seat.pending.toByteArray();
+                seat.pending.reset();
+            } finally {
+                lock.unlock();
+            }
+            if (data.length > 0) { // the game loop may have made the channel non-blocking once nothing is left to send
+                seat.out.write(data);
+            }
+        } finally {
+            seat.writing.unlock();
+        }
+    }
+    private static String addressOf(SocketChannel channel) {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+    static String hostOf(SocketAddress address) {
+        if (address instanceof InetSocketAddress inet) {
+            return inet.getAddress() == null ? inet.getHostString() : inet.getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
+    }
+}
@@ -0,0 +1,43 @@
+package JCultureOL;
+
+import java.io.IOException;
+
+/**
+ * supplies the moves of one player, positions are packed as <code>(y << 32) | x</code> like the moves guests send
+ */
+interface MoveSource {
+    /**
+     * @param board board as it is now, must not be changed
+     * @param team team the move is for
+     * @return a move that is valid for the team on the board
+     * @throws Exception if no move can be produced, such as at the end of a script
+     */
+    long nextMove(Board board, int team) throws Exception;
+    /**
+     * used where the number of teams taking turns is known, by the host and the house of a room. only sources that look ahead need it
+     * @param players number of teams taking turns
+     * @return a move that is valid for the team on the board
+     * @throws Exception if no move can be produced
+     */
+    default long nextMove(Board board, int team, int players) throws Exception {
+        return nextMove(board, team);
+    }
+    /**
+     * parses a move source that needs no console
+     * @param spec <code>random</code> for random valid moves, <code>greedy</code> for the sampled cell closest to toppling, <code>ai[:MILLIS[:THREADS]]</code> for a tree search, otherwise the path of a move script or <code>-</code> for stdin
+     * @return the source
+     * @throws IOException if the script cannot be opened
+     */
+    static MoveSource parse(String spec) throws IOException {
+        if (spec.equalsIgnoreCase("random")) {
+            return new RandomMoves();
+        }
+        if (spec.equalsIgnoreCase("greedy")) {
+            return new GreedyMoves();
+        }
+        if (spec.equalsIgnoreCase("ai") || spec.toLowerCase().startsWith("ai:")) {
+            return SearchMoves.parse(spec);
+        }
+        return ScriptedMoves.open(spec);
+    }
+}
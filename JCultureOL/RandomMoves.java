@@ -0,0 +1,35 @@
+package JCultureOL;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * plays a uniformly random valid move, for load tests and self-play where no one is at the keyboard
+ */
+final class RandomMoves implements MoveSource {
+    private static final int TRIES = 16; // random picks before falling back to a scan
+
+    @Override
+    public long nextMove(Board board, int team) {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        for (int k = 0; k < TRIES; k ++) {
+            int i = rng.nextInt(board.cells);
+            if (valid(board, i, team)) {
+                return pack(board, i);
+            }
+        }
+        int start = rng.nextInt(board.cells); // mostly taken boards, walk from a random cell to the next free one
+        for (int k = 0; k < board.cells; k ++) {
+            int i = (start + k) % board.cells;
+            if (valid(board, i, team)) {
+                return pack(board, i);
+            }
+        }
+        throw new IllegalStateException("team " + team + " has no valid move");
+    }
+    private static boolean valid(Board board, int i, int team) {
+        return Game.isValidMove(board, i % board.size, i / board.size, team);
+    }
+    private static long pack(Board board, int i) {
+        return (((long)(i / board.size))<<32)|((long)(i % board.size));
+    }
+}
@@ -0,0 +1,82 @@
+package JCultureOL;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * watches a game as one spectator and passes it on to any number of its own through a {@link SpectatorHub}, so the host sends each move once per relay however many people are watching
+ * <p>
+ * a relay speaks the spectator protocol on both sides, so relays can feed other relays
+ */
+final class Relay {
+    private final String host;
+    private final int port;
+    private final int listen;
+
+    /**
+     * @param host address of the host or relay to watch
+     * @param port its spectator port
+     * @param listen port to take spectators on
+     */
+    Relay(String host, int port, int listen) {
+        this.host = host;
+        this.port = port;
+        this.listen = listen;
+    }
+    /**
+     * relays the game until the upstream connection ends, then gives spectators a few seconds to catch up
+     */
+    void run() throws IOException {
+        try (Socket upstream = new Socket(host, port)) {
+            upstream.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(upstream.getInputStream(), 65536));
+            DataOutputStream out = new DataOutputStream(upstream.getOutputStream());
+            out.write(Lobby.FEATURE_SPECTATE | Lobby.FEATURE_DIFF); // the hub keeps its board from diffs
+            if (in.read() != 0x01) {
+                throw new IOException("no game to watch at " + host + ":" + port);
+            }
+            int size = in.readInt();
+            byte[] rgb = in.readNBytes(3 * in.readInt());
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(listen), 1024);
+            SpectatorHub hub = new SpectatorHub(server, size, rgb, () -> {
+                try {
+                    synchronized (out) {
+                        out.writeLong(HostLoop.RESYNC); // the snapshot that answers it resets every spectator
+                    }
+                } catch (IOException e) {} // the upstream connection is gone, which the reading loop finds out on its own
+            });
+            System.out.println("relaying " + host + ":" + port + " on port " + listen);
+            long moves = 0;
+            try {
+                while (true) {
+                    int code = in.read();
+                    if (code == -1) {
+                        break;
+                    }
+                    if (code == 0x03) {
+                        hub.reset(in.readNBytes(in.readInt()));
+                    } else if (code == 0x04) {
+                        int x = in.readInt();
+                        int y = in.readInt();
+                        int team = in.readInt();
+                        in.read(); // turn flag, never set for spectators
+                        long hash = in.readLong();
+                        hub.move(x, y, team, in.readNBytes(in.readInt()), hash);
+                        moves ++;
+                    } else {
+                        throw new IOException("unexpected frame " + code + " from upstream");
+                    }
+                }
+            } finally {
+                hub.close();
+                System.out.println("relayed " + moves + " moves, " + hub.stats());
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * draws frames on a thread of its own so the network loop never waits on the terminal
+ * <p>
+ * the game thread publishes each move as the cells it changed, the render thread applies them to its own copy of the board and draws once for everything that queued up while it was busy, so only the newest state reaches the screen
+ * <p>
+ * the queue is bounded, if the renderer falls that far behind the queued moves are dropped and replaced by a copy of the whole board. publishing threads take a lock around every hand over, so a replacement never races another thread's event
+ */
+final class RenderThread {
+    private static final int QUEUE = 256;
+
+    private final Renderer renderer;
+    private final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE);
+    private final ReentrantLock publishing = new ReentrantLock(); // taken by every thread handing events over, never by the render thread
+    private Board shadow; // only touched by the render thread, under the renderer's lock so scrolling sees whole moves
+    private long published, done; // events handed over and events fully drawn, guarded by this
+
+    private record Move(int x, int y, int team, int[] cells, byte[] values, Color[] colors) {}
+    private record BoardCopy(Board board, int x, int y, int team, Color[] colors) {} // team is -1 if there is no move to show
+    private record Message(String text) {}
+
+    /**
+     * @param renderer renderer to draw with, only this thread draws frames with it from now on
+     * @param board board the game starts from, it is copied
+     */
+    RenderThread(Renderer renderer, Board board) {
+        this.renderer = renderer;
+        this.shadow = board.copy();
+        Thread thread = new Thread(this::loop, "render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    /**
+     * hands the last move on the board over to be drawn, never blocks
+     * @param board board the move was made on, its changed list is copied
+     * @param colors color table indexed by team
+     */
+    void move(Board board, int x, int y, int team, Color[] colors) {
+        int[] cells = board.copyChanged();
+        byte[] values = new byte[cells.length];
+        for (int k = 0; k < cells.length; k ++) {
+            values[k] = (byte)board.value(cells[k]);
+        }
+        Move move = new Move(x, y, team, cells, values, colors);
+        publishing.lock();
+        try {
+            if (!offer(move)) {
+                replace(new BoardCopy(board.copy(), x, y, team, colors));
+            }
+        } finally {
+            publishing.unlock();
+        }
+    }
+    /**
+     * hands over a board that changed other than by a move, such as one resynchronised from the host, to be drawn in full
+     * @param board board to draw, it is copied
+     * @param colors color table indexed by team
+     */
+    void board(Board board, Color[] colors) {
+        BoardCopy copy = new BoardCopy(board.copy(), 0, 0, -1, colors);
+        publishing.lock();
+        try {
+            if (!offer(copy)) {
+                replace(copy);
+            }
+        } finally {
+            publishing.unlock();
+        }
+    }
+    /**
+     * drops every queued move and board in favour of a copy of the whole board, queued messages follow the copy in their order, as it holds every move published before them. called with the publishing lock held
+     */
+    private void replace(BoardCopy copy) {
+        ArrayList<Object> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        ArrayList<Object> messages = new ArrayList<>();
+        int replaced = 0;
+        for (Object event : dropped) {
+            if (event instanceof Message) {
+                messages.add(event);
+            } else {
+                replaced ++;
+            }
+        }
+        finished(replaced);
+        put(copy); // only the render thread takes from the queue now, so this waits at most for it to make room
+        for (int k = 0; k < messages.size(); k ++) {
+            try {
+                queue.put(messages.get(k)); // counted when first published
+            } catch (InterruptedException e) {
+                finished(messages.size() - k);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    /**
+     * prints a line once every move published before it has been drawn
+     */
+    void message(String text) {
+        Message message = new Message(text);
+        publishing.lock();
+        try {
+            if (!offer(message)) {
+                put(message); // messages are rare and must not be lost
+            }
+        } finally {
+            publishing.unlock();
+        }
+    }
+    /**
+     * hands an event over, waiting for room
+     */
+    private void put(Object event) {
+        synchronized (this) {
+            published ++;
+        }
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                published --;
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+    /**
+     * waits until everything published so far is on screen, used before prompting so a prompt is never drawn over
+     */
+    synchronized void awaitIdle() {
+        try {
+            while (done < published) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    private boolean offer(Object event) {
+        synchronized (this) {
+            published ++;
+        }
+        if (queue.offer(event)) {
+            return true;
+        }
+        synchronized (this) {
+            published --;
+        }
+        return false;
+    }
+    private void loop() {
+        ArrayList<Object> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            int applied = 0; // events in the batch that have been drawn or printed
+            Color[] colors = null;
+            boolean pending = false; // whether moves were applied that are not on screen yet
+            try {
+                for (int k = 0; k < batch.size(); k ++) {
+                    Object event = batch.get(k);
+                    if (event instanceof Message m) {
+                        if (pending) {
+                            renderer.frame(shadow, colors);
+                            pending = false;
+                        }
+                        System.out.print(m.text() + "\r\n"); // the terminal may be in raw mode while a prompt is open
+                        finished(k + 1 - applied);
+                        applied = k + 1;
+                        continue;
+                    }
+                    synchronized (renderer) {
+                        if (!pending) {
+                            shadow.beginMove(); // the changed list collects every move drawn in one frame
+                        }
+                        if (event instanceof Move m) {
+                            for (int j = 0; j < m.cells().length; j ++) {
+                                int i = m.cells()[j];
+                                shadow.setTeam(i, m.team());
+                                shadow.setValue(i, m.values()[j]);
+                                shadow.touch(i);
+                            }
+                            renderer.move(m.x(), m.y(), m.team());
+                            colors = m.colors();
+                        } else if (event instanceof BoardCopy c) {
+                            shadow = c.board();
+                            renderer.invalidate();
+                            if (c.team() >= 0) {
+                                renderer.move(c.x(), c.y(), c.team());
+                            }
+                            colors = c.colors();
+                        }
+                    }
+                    pending = true;
+                }
+                if (pending) {
+                    renderer.frame(shadow, colors);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            finished(batch.size() - applied);
+            batch.clear();
+        }
+    }
+    private synchronized void finished(int n) {
+        done += n;
+        notifyAll();
+    }
+}
@@ -0,0 +1,248 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * draws the board into one reusable buffer which is written with a single flush per frame
+ * <p>
+ * in delta mode the board stays at the top of the screen and only the cells changed by the last move are redrawn, using cursor addressing, so output follows the size of the cascade instead of the board
+ * <p>
+ * in viewport mode only a window the size of the terminal is drawn, centred on the last move and scrollable, so output follows the size of the screen instead of the board
+ */
+final class Renderer {
+    private static final byte[] RESET = "\u001b[0m".getBytes(StandardCharsets.US_ASCII);
+    private final OutputStream out;
+    private final boolean delta;
+    private byte[] buf = new byte[8192];
+    private int len;
+    private Color[] paletteOf; // color table the cached escapes were built from
+    private byte[][] palette; // escape sequence for each team's color
+    private boolean drawn; // whether a full board is on screen for delta updates to patch
+    private int mx, my, mteam = -1; // last move, mteam is -1 before the first move
+    private boolean viewport;
+    private boolean recenter; // whether the window should jump to the last move on the next frame
+    private int vx, vy, vw, vh; // window origin and size in cells
+    private Board shown; // board of the last frame, for redrawing after a scroll
+
+    /**
+     * @param out stream to draw to
+     * @param delta whether to keep the board in place and redraw only changed cells
+     */
+    Renderer(OutputStream out, boolean delta) {
+        this.out = out;
+        this.delta = delta;
+    }
+    /**
+     * switches to viewport mode, which also keeps the board in place like delta mode
+     * @param rows terminal height, four rows are kept for the status line and prompts
+     * @param cols terminal width, each cell takes two columns
+     */
+    synchronized void setViewport(int rows, int cols) {
+        viewport = true;
+        vh = Math.max(1, rows - 4);
+        vw = Math.max(1, cols / 2);
+        drawn = false;
+    }
+    /**
+     * remembers the move shown with the next frame
+     */
+    synchronized void move(int x, int y, int team) {
+        mx = x;
+        my = y;
+        mteam = team;
+        recenter = true;
+    }
+    /**
+     * moves the viewport and redraws it, the cursor is put back where it was so an open prompt is not disturbed
+     * @param dx columns to move by
+     * @param dy rows to move by
+     * @return false if the viewport is off or already at the edge
+     * @throws IOException
+     */
+    synchronized boolean scroll(int dx, int dy) throws IOException {
+        if (!viewport || shown == null) {
+            return false;
+        }
+        int ox = vx;
+        int oy = vy;
+        vx = clamp(vx + dx, shown.size - vw);
+        vy = clamp(vy + dy, shown.size - vh);
+        if (vx == ox && vy == oy) {
+            return false;
+        }
+        len = 0;
+        put("\u001b7");
+        window(shown);
+        put("\u001b8");
+        out.write(buf, 0, len);
+        out.flush();
+        return true;
+    }
+    /**
+     * draws the last move and the board in one write
+     * @param board board to draw
+     * @param colors color table indexed by team
+     * @throws IOException
+     */
+    synchronized void frame(Board board, Color[] colors) throws IOException {
+        len = 0;
+        refreshPalette(colors);
+        shown = board;
+        if (!delta && !viewport) {
+            status();
+            full(board);
+        } else {
+            if (viewport && recenter) {
+                int ox = vx;
+                int oy = vy;
+                vx = clamp(mx - vw / 2, board.size - vw);
+                vy = clamp(my - vh / 2, board.size - vh);
+                drawn &= vx == ox && vy == oy;
+            }
+            recenter = false;
+            if (drawn) {
+                changes(board);
+            } else {
+                put("\u001b[H\u001b[2J");
+                window(board);
+                drawn = true;
+            }
+            cursor(Math.min(board.size, viewport ? vh : board.size) + 1, 1);
+            put("\u001b[J");
+            status();
+        }
+        out.write(buf, 0, len);
+        out.flush();
+    }
+    /**
+     * makes the next delta or viewport frame redraw everything, for when the board was replaced rather than changed
+     */
+    synchronized void invalidate() {
+        drawn = false;
+    }
+    private void status() {
+        if (mteam < 0) {
+            return;
+        }
+        put("team ");
+        put(palette[mteam]);
+        putInt(mteam);
+        put(RESET);
+        put(" has made the move: ");
+        putInt(mx);
+        put(", ");
+        putInt(my);
+        put('\r'); // the terminal may be in raw mode while a prompt is open
+        put('\n');
+    }
+    private void full(Board board) {
+        int last = -1;
+        for (int y = 0; y < board.size; y ++) {
+            for (int i = y * board.size, end = i + board.size; i < end; i ++) {
+                int t = board.team(i);
+                if (t != last) { // runs of one team share a single escape
+                    put(palette[t]);
+                    last = t;
+                }
+                putInt(board.value(i));
+                put(' ');
+            }
+            put('\n');
+        }
+        put(RESET);
+    }
+    /**
+     * draws the visible part of the board with each row addressed, the whole board outside viewport mode
+     */
+    private void window(Board board) {
+        int x0 = viewport ? vx : 0;
+        int y0 = viewport ? vy : 0;
+        int w = viewport ? Math.min(vw, board.size) : board.size;
+        int h = viewport ? Math.min(vh, board.size) : board.size;
+        int last = -1;
+        for (int y = 0; y < h; y ++) {
+            cursor(y + 1, 1);
+            for (int i = (y0 + y) * board.size + x0, end = i + w; i < end; i ++) {
+                int t = board.team(i);
+                if (t != last) { // runs of one team share a single escape
+                    put(palette[t]);
+                    last = t;
+                }
+                putInt(board.value(i));
+                put(' ');
+            }
+        }
+        put(RESET);
+    }
+    private void changes(Board board) {
+        int x0 = viewport ? vx : 0;
+        int y0 = viewport ? vy : 0;
+        for (int k = 0; k < board.changedCount(); k ++) {
+            int i = board.changed(k);
+            int y = i / board.size - y0;
+            int x = i % board.size - x0;
+            if (viewport && (x < 0 || y < 0 || x >= vw || y >= vh)) {
+                continue;
+            }
+            cursor(y + 1, x * 2 + 1);
+            put(palette[board.team(i)]);
+            putInt(board.value(i));
+        }
+        put(RESET);
+    }
+    private static int clamp(int v, int max) {
+        return Math.max(0, Math.min(v, max));
+    }
+    private void refreshPalette(Color[] colors) {
+        if (colors == paletteOf) {
+            return;
+        }
+        palette = new byte[colors.length][];
+        for (int t = 0; t < colors.length; t ++) {
+            palette[t] = colors[t].toAnsi().getBytes(StandardCharsets.US_ASCII);
+        }
+        paletteOf = colors;
+    }
+    private void cursor(int row, int col) {
+        put("\u001b[");
+        putInt(row);
+        put(';');
+        putInt(col);
+        put('H');
+    }
+    private void ensure(int n) {
+        if (len + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(len + n, buf.length * 2));
+        }
+    }
+    private void put(char c) {
+        ensure(1);
+        buf[len++] = (byte)c;
+    }
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+    private void put(String ascii) {
+        ensure(ascii.length());
+        for (int k = 0; k < ascii.length(); k ++) {
+            buf[len++] = (byte)ascii.charAt(k);
+        }
+    }
+    private void putInt(int v) {
+        if (v < 0) {
+            put('-');
+            v = -v;
+        }
+        if (v < 10) {
+            put((char)('0' + v));
+            return;
+        }
+        putInt(v / 10);
+        put((char)('0' + v % 10));
+    }
+}
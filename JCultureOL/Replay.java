@@ -0,0 +1,162 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * reads a {@link GameLog} through a memory mapping and puts a game in the state after any number of moves
+ * <p>
+ * opening the log walks its records once to count the moves and note where each checkpoint is, a seek then loads the nearest checkpoint before the move and replays at most {@link GameLog#CHECKPOINT_EVERY} moves from there. a log that ends in the middle of a record is read up to its last complete one
+ */
+final class Replay {
+    private final MappedByteBuffer data;
+    private final int size;
+    private final byte[] rgb;
+    private final int start; // offset of the first record
+    private int moves;
+    private int checkpoints;
+    private int[] checkpointMoves = new int[16]; // moves before each checkpoint, ascending
+    private int[] checkpointOffsets = new int[16]; // offset of each checkpoint record
+
+    /**
+     * a move as read from the log
+     */
+    record Move(int x, int y, int team) {}
+
+    /**
+     * @param file log to read
+     * @throws IOException if the file cannot be mapped or is not a game log
+     */
+    Replay(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after the channel is closed
+        }
+        if (data.remaining() < 13 || data.getInt() != GameLog.MAGIC) {
+            throw new IOException(file + " is not a game log");
+        }
+        int version = data.get();
+        if (version != GameLog.VERSION) {
+            throw new IOException(file + " is a version " + version + " game log, only version " + GameLog.VERSION + " can be read");
+        }
+        size = data.getInt();
+        rgb = new byte[data.getInt() * 3];
+        data.get(rgb);
+        start = data.position();
+        index();
+    }
+    /**
+     * counts the moves and notes every checkpoint, stopping at the first incomplete record
+     */
+    private void index() throws IOException {
+        ByteBuffer in = data.duplicate().position(start);
+        while (in.hasRemaining()) {
+            int offset = in.position();
+            int tag = in.get();
+            if (tag == GameLog.MOVE) {
+                if (varint(in) < 0 || varint(in) < 0 || varint(in) < 0) {
+                    return;
+                }
+                moves ++;
+            } else if (tag == GameLog.CHECKPOINT) {
+                if (in.remaining() < 16) {
+                    return;
+                }
+                int at = in.getInt();
+                in.getLong();
+                int length = in.getInt();
+                if (length < 0 || in.remaining() < length) {
+                    return;
+                }
+                if (at != moves) {
+                    throw new IOException("checkpoint for move " + at + " found after move " + moves);
+                }
+                in.position(in.position() + length);
+                if (checkpoints == checkpointMoves.length) {
+                    checkpointMoves = Arrays.copyOf(checkpointMoves, checkpoints * 2);
+                    checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpoints * 2);
+                }
+                checkpointMoves[checkpoints] = at;
+                checkpointOffsets[checkpoints] = offset;
+                checkpoints ++;
+            } else {
+                throw new IOException("unknown record " + tag + " in game log");
+            }
+        }
+    }
+    int size() {
+        return size;
+    }
+    /**
+     * @return the custom team colors of the game as r g b bytes
+     */
+    byte[] rgb() {
+        return rgb.clone();
+    }
+    /**
+     * @return the number of complete moves in the log
+     */
+    int moves() {
+        return moves;
+    }
+    int checkpoints() {
+        return checkpoints;
+    }
+    /**
+     * puts a game in the state after the first n moves of the log
+     * @param game game on a board of the log's size, its board is overwritten
+     * @param n number of moves to be in the state after
+     * @return the last of those moves, null if n is 0
+     * @throws IOException if a checkpoint does not match the moves before it
+     */
+    Move seek(Game game, int n) throws IOException {
+        if (n < 0 || n > moves) {
+            throw new IllegalArgumentException("the log holds moves 0 to " + moves + ", not " + n);
+        }
+        game.reset();
+        if (n == 0) {
+            return null;
+        }
+        int k = Arrays.binarySearch(checkpointMoves, 0, checkpoints, n - 1); // the checkpoint at n itself would leave the last move unknown
+        k = k >= 0 ? k : -k - 2;
+        ByteBuffer in = data.duplicate().position(k >= 0 ? checkpointOffsets[k] : start);
+        int done = 0;
+        Move last = null;
+        while (done < n) {
+            if (in.get() == GameLog.CHECKPOINT) { // only the one seeked to, later ones come after move n
+                done = in.getInt();
+                long hash = in.getLong();
+                byte[] snapshot = new byte[in.getInt()];
+                in.get(snapshot);
+                Snapshot.decode(snapshot, game.board());
+                if (game.board().hash != hash) {
+                    throw new IOException("checkpoint after move " + done + " does not match its hash");
+                }
+                continue;
+            }
+            last = new Move(varint(in), varint(in), varint(in));
+            game.apply(last.x(), last.y(), last.team());
+            done ++;
+        }
+        return last;
+    }
+    /**
+     * reads an unsigned varint
+     * @return the value, or -1 if the buffer ends first
+     */
+    private static int varint(ByteBuffer in) {
+        int v = 0;
+        for (int shift = 0; shift < 32 && in.hasRemaining(); shift += 7) {
+            int b = in.get();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,180 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * hosts any number of games in one process on one port. a guest is seated in the room that is filling, which starts on its own once it has enough guests or its first guest has waited long enough, and team 1 of every room is played by a house {@link MoveSource}
+ * <p>
+ * every room has its own {@link Game}, color table and {@link HostLoop}, nothing is shared between rooms but threads. handshakes and the house's moves run on virtual threads and the rooms' sockets are spread over a few {@link EventLoop}s, so hundreds of small games share a handful of threads and one warmed up JIT
+ * <p>
+ * guests speak the same protocol as with a single host. one coming back with a session token is routed to its room by the token
+ */
+final class RoomServer {
+    private final int port;
+    private final int size;
+    private final int players;
+    private final int startAfter;
+    private final String house;
+    private final int grace;
+    private final boolean stats;
+    private final EventLoop[] loops;
+    private final ConcurrentHashMap<Long, HostLoop> rooms = new ConcurrentHashMap<>(); // running rooms by the session tokens of their guests
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile Lobby filling; // lobby new connections are handed to
+
+    /**
+     * a running game, shown as a line per event rather than drawn
+     */
+    private static final class Room implements HostLoop.Table {
+        private final int id;
+        private final Game game;
+        private final Color[] colors;
+        private final MoveSource house;
+
+        Room(int id, Game game, Color[] colors, MoveSource house) {
+            this.id = id;
+            this.game = game;
+            this.colors = colors;
+            this.house = house;
+        }
+        @Override
+        public Game game() {
+            return game;
+        }
+        @Override
+        public Color[] colors() {
+            return colors;
+        }
+        @Override
+        public long nextMove(int players) throws Exception {
+            return house.nextMove(game.board(), 1, players);
+        }
+        @Override
+        public void move(int x, int y, int team) {}
+        @Override
+        public void message(String text) {
+            System.out.println("room " + id + ": " + text);
+        }
+        @Override
+        public void winner(int team) {} // reported once the room has closed
+    }
+
+    /**
+     * @param port port to take guests on
+     * @param size board size of every room
+     * @param players number of guests that starts a room
+     * @param startAfter seconds after its first guest joined at which a room starts with however many it has, 0 to wait for a full room
+     * @param house move source spec for {@link MoveSource#parse(String)} that plays team 1, each room gets its own
+     * @param grace seconds a disconnected guest may take to come back
+     * @param threads number of event loops the rooms are spread over
+     * @param stats whether to print the network cost of every move
+     * @throws IOException if an event loop cannot be opened or the house spec names a missing script
+     */
+    RoomServer(int port, int size, int players, int startAfter, String house, int grace, int threads, boolean stats) throws IOException {
+        MoveSource.parse(house); // fails here rather than when the first room starts
+        this.port = port;
+        this.size = size;
+        this.players = players;
+        this.startAfter = startAfter;
+        this.house = house;
+        this.grace = grace;
+        this.stats = stats;
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i ++) {
+            loops[i] = new EventLoop();
+        }
+    }
+    /**
+     * takes guests and starts rooms until the process is stopped
+     */
+    void run() throws Exception {
+        for (int i = 0; i < loops.length; i ++) {
+            EventLoop loop = loops[i];
+            Thread.ofPlatform().name("rooms-loop-" + i).daemon().start(() -> {
+                try {
+                    loop.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        Lobby lobby = lobby();
+        filling = lobby;
+        Thread.ofVirtual().name("rooms-accept").start(() -> {
+            try {
+                while (true) {
+                    SocketChannel channel = server.accept();
+                    Thread.ofVirtual().name("rooms-" + channel.getRemoteAddress()).start(() -> filling.handshake(channel)); // a lobby that has started since passes the guest on
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        System.out.println("hosting rooms of " + players + " guests on port " + port + " over " + loops.length + " event loops");
+        for (int id = 1; ; id ++) {
+            Lobby.Guest[] guests = lobby.run(); // returns at once for a lobby that filled up while an earlier one was starting
+            Color[] colors = lobby.colors();
+            lobby = lobby.next();
+            filling = lobby;
+            open(id, guests, colors);
+        }
+    }
+    /**
+     * @return an empty lobby for the next room, followed by another made once it is full
+     */
+    private Lobby lobby() {
+        Lobby lobby = new Lobby(null, size, JCultureOL.colors, (address, message, seated) -> seated < players, players, startAfter, false);
+        lobby.onRejoin(this::rejoin);
+        lobby.followedBy(this::lobby);
+        return lobby;
+    }
+    /**
+     * starts a room on the next event loop, it is forgotten again once it ends
+     */
+    private void open(int id, Lobby.Guest[] guests, Color[] colors) throws IOException {
+        Room room = new Room(id, new Game(size, false), colors, MoveSource.parse(house));
+        HostLoop loop = new HostLoop(room, guests, loops[id % loops.length], stats, null, null, grace);
+        long[] tokens = loop.tokens();
+        for (long token : tokens) {
+            rooms.put(token, loop);
+        }
+        int now = running.incrementAndGet();
+        loop.ended().whenComplete((winner, e) -> {
+            for (long token : tokens) {
+                rooms.remove(token);
+            }
+            int left = running.decrementAndGet();
+            room.message((e != null ? "failed (" + e + ")" : winner == 0 ? "abandoned" : "team " + winner + " won") + " after " + loop.moves() + " moves, " + left + " rooms running");
+        });
+        room.message("started with " + guests.length + " guests, " + now + " rooms running");
+        loop.start();
+    }
+    /**
+     * @return the number of session tokens routed to running rooms
+     */
+    int routed() {
+        return rooms.size();
+    }
+    /**
+     * hands a guest coming back to the room its token belongs to, or turns it away
+     */
+    private void rejoin(SocketChannel channel, long token, int features) {
+        HostLoop loop = rooms.get(token);
+        if (loop != null) {
+            loop.rejoin(channel, token, features);
+            return;
+        }
+        try {
+            channel.write(ByteBuffer.wrap(new byte[]{0x00}));
+            channel.close();
+        } catch (IOException e) {}
+    }
+}
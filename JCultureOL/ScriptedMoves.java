@@ -0,0 +1,195 @@
+package JCultureOL;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * streams moves from a file or pipe so games can be replayed or driven unattended
+ * <p>
+ * each line holds <code>x, y</code>, the comma may also be plain whitespace. blank lines and anything after <code>#</code> are ignored. lines are parsed straight out of a reused byte buffer, so a move costs no strings or regular expressions
+ * <p>
+ * moves that are not valid on the board when they come up are reported and skipped, the same check interactive moves go through
+ * <p>
+ * stdin has one reader for the whole process, {@link ScriptedMoves#stdin()}, shared by the prompts and every move source reading stdin so none of them takes bytes buffered for another. it hands out whole lines to one caller at a time. the viewport line editor reads stdin itself, so it is refused together with a script on stdin
+ */
+final class ScriptedMoves implements MoveSource {
+    private static final long SKIP = -1; // a line without a move
+    private static ScriptedMoves stdin;
+
+    private final InputStream in;
+    private final String name;
+    private final byte[] buf = new byte[65536];
+    private int pos, end;
+    private int ch; // character being parsed, -1 at the end of input
+    private int line; // number of the line being parsed, for messages
+    private final ReentrantLock reading = new ReentrantLock(); // held for a whole line, a lock so callers on virtual threads do not pin while the read blocks
+
+    /**
+     * @param in stream to read, only this reads from it, stdin goes through {@link ScriptedMoves#stdin()}
+     * @param name name used in messages
+     */
+    ScriptedMoves(InputStream in, String name) {
+        this.in = in;
+        this.name = name;
+    }
+    /**
+     * @param spec a file path, or <code>-</code> for stdin
+     * @return the script
+     * @throws IOException if the file cannot be opened
+     */
+    static ScriptedMoves open(String spec) throws IOException {
+        if (spec.equals("-")) {
+            return stdin();
+        }
+        return new ScriptedMoves(Files.newInputStream(Path.of(spec)), spec);
+    }
+    /**
+     * @return the reader of stdin shared by the whole process
+     */
+    static synchronized ScriptedMoves stdin() {
+        if (stdin == null) {
+            stdin = new ScriptedMoves(System.in, "stdin");
+        }
+        return stdin;
+    }
+    @Override
+    public long nextMove(Board board, int team) throws IOException {
+        reading.lock();
+        try {
+            return next(board, team);
+        } finally {
+            reading.unlock();
+        }
+    }
+    private long next(Board board, int team) throws IOException {
+        while (true) {
+            ch = read();
+            if (ch == -1) {
+                throw new EOFException(name + ": move script ended");
+            }
+            line ++;
+            long move = parseLine();
+            if (move == SKIP) {
+                continue;
+            }
+            int y = (int)(move >> 32);
+            int x = (int)move;
+            if (Game.isValidMove(board, x, y, team)) {
+                return move;
+            }
+            System.err.println(name + ":" + line + ": skipping invalid move " + x + ", " + y + " for team " + team);
+        }
+    }
+    /**
+     * reads a whole line, used to answer prompts when there is no console
+     * @return the line without its line separator, null at the end of input
+     * @throws IOException
+     */
+    String nextLine() throws IOException {
+        reading.lock();
+        try {
+            return line();
+        } finally {
+            reading.unlock();
+        }
+    }
+    private String line() throws IOException {
+        ch = read();
+        if (ch == -1) {
+            return null;
+        }
+        line ++;
+        int start = pos - 1;
+        if (start >= 0 && findEol()) { // the whole line is already buffered
+            return trimmed(new String(buf, start, pos - 1 - start, StandardCharsets.UTF_8));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (; ch != '\n' && ch != -1; ch = read()) {
+            sb.append((char)ch);
+        }
+        return trimmed(sb.toString());
+    }
+    /**
+     * moves past the next line feed if it is in the buffer
+     * @return false if the buffer ran out first, nothing is consumed then
+     */
+    private boolean findEol() {
+        for (int p = pos - 1; p < end; p ++) {
+            if (buf[p] == '\n') {
+                pos = p + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+    private static String trimmed(String s) {
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+    /**
+     * parses the rest of a line whose first character is in {@link ScriptedMoves#ch}
+     * @return the packed move or {@link ScriptedMoves#SKIP}
+     */
+    private long parseLine() throws IOException {
+        blanks();
+        if (ch == '\n' || ch == '#' || ch == -1) {
+            skipLine();
+            return SKIP;
+        }
+        int x = number();
+        blanks();
+        if (ch == ',') {
+            ch = read();
+            blanks();
+        }
+        int y = number();
+        blanks();
+        if (ch == '#') {
+            skipLine();
+        } else if (ch != '\n' && ch != -1) {
+            throw malformed();
+        }
+        return (((long)y)<<32)|((long)x);
+    }
+    private int number() throws IOException {
+        if (ch < '0' || ch > '9') {
+            throw malformed();
+        }
+        long v = 0;
+        for (; ch >= '0' && ch <= '9'; ch = read()) {
+            v = v * 10 + (ch - '0');
+            if (v > Integer.MAX_VALUE) {
+                throw malformed();
+            }
+        }
+        return (int)v;
+    }
+    private void blanks() throws IOException {
+        while (ch == ' ' || ch == '\t' || ch == '\r') {
+            ch = read();
+        }
+    }
+    private void skipLine() throws IOException {
+        while (ch != '\n' && ch != -1) {
+            ch = read();
+        }
+    }
+    private IOException malformed() {
+        return new IOException(name + ":" + line + ": expected \"x, y\"");
+    }
+    private int read() throws IOException {
+        if (pos == end) {
+            end = in.read(buf);
+            pos = 0;
+            if (end <= 0) {
+                end = 0;
+                return -1;
+            }
+        }
+        return buf[pos++] & 0xff;
+    }
+}
@@ -0,0 +1,261 @@
+package JCultureOL;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * computer player using monte carlo tree search, each move gets a fixed time budget and the search gets stronger the more playouts fit in it
+ * <p>
+ * the search is root parallel, every worker grows its own tree from the same position on a private copy of the {@link Game}, and the visit counts at the root are summed once time is up
+ * <p>
+ * the only thing workers share is a {@link TranspositionTable} keyed by zobrist hash. a node is published each time its visits reach a power of two, and a new node for a position already in the table starts from what was learned there instead of from nothing, whether it came from another worker, another order of the same moves or the search for an earlier move
+ * <p>
+ * the workers of every search in the process run on one shared pool with a thread per core, so a server whose rooms each have a computer player keeps a fixed number of threads however many games it has played
+ * <p>
+ * the host and the house of a room are given the number of teams taking turns. a guest is never told how many players there are, so for it the number is taken as the highest team on the board or the searching team, whichever is larger
+ */
+final class SearchMoves implements MoveSource {
+    private static final double EXPLORATION = 1.4;
+    private static final int PUBLISH_VISITS = 16; // fewest visits worth storing
+    private static final int PRIOR_VISITS = 64; // most visits a node is started with from the table
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors()); // its workers are daemons that exit when idle
+
+    private final long budget; // nanos per move
+    private final int threads;
+    private final TranspositionTable<Prior> table = new TranspositionTable<>(1 << 18);
+    private volatile String last = "no search yet";
+
+    /**
+     * what earlier searches learned about a position
+     */
+    private record Prior(int mover, int visits, double wins) {}
+
+    /**
+     * @param millis time to think about each move
+     * @param threads number of search workers, at most one per core as that is all the shared pool runs at once
+     */
+    SearchMoves(long millis, int threads) {
+        this.budget = millis * 1_000_000L;
+        this.threads = Math.max(1, Math.min(threads, POOL.getParallelism()));
+    }
+    /**
+     * parses <code>ai</code>, <code>ai:MILLIS</code> or <code>ai:MILLIS:THREADS</code>, by default one second on every core
+     */
+    static SearchMoves parse(String spec) {
+        String[] parts = spec.split(":");
+        long millis = parts.length > 1 ? Long.parseLong(parts[1]) : 1000;
+        int threads = parts.length > 2 ? Integer.parseInt(parts[2]) : Runtime.getRuntime().availableProcessors();
+        return new SearchMoves(millis, threads);
+    }
+    /**
+     * @return playouts, tree nodes and nodes per second of the last search
+     */
+    String lastSearch() {
+        return last;
+    }
+    @Override
+    public long nextMove(Board board, int team) throws Exception {
+        int players = team;
+        for (int t = team + 1; t < board.teamSlots(); t ++) {
+            if (board.owned(t) > 0) {
+                players = t;
+            }
+        }
+        return nextMove(board, team, Math.max(2, players));
+    }
+    @Override
+    public long nextMove(Board board, int team, int players) throws Exception {
+        Game root = Game.from(board, players, team);
+        table.newGeneration();
+        long start = System.nanoTime();
+        long deadline = start + budget;
+        ArrayList<Callable<Tree>> workers = new ArrayList<>();
+        SplittableRandom seeds = new SplittableRandom();
+        for (int w = 0; w < threads; w ++) {
+            SplittableRandom rng = seeds.split();
+            workers.add(() -> new Tree(root, rng, table).grow(deadline));
+        }
+        long[] visits = new long[board.cells];
+        long playouts = 0;
+        long nodes = 0;
+        for (Future<Tree> result : POOL.invokeAll(workers)) {
+            Tree tree = result.get();
+            for (Node child : tree.top.children) {
+                visits[child.cell] += child.visits - child.seeded;
+            }
+            playouts += tree.top.visits;
+            nodes += tree.nodes;
+        }
+        int best = -1;
+        for (int i = 0; i < visits.length; i ++) {
+            if (visits[i] > 0 && (best < 0 || visits[i] > visits[best])) {
+                best = i;
+            }
+        }
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        last = String.format("search: %d playouts, %d nodes, %.0f nodes/s on %d threads, table %s", playouts, nodes, nodes / seconds, threads, table.stats());
+        if (best < 0) { // no time for even one playout
+            return new RandomMoves().nextMove(board, team);
+        }
+        return (((long)(best / board.size))<<32)|((long)(best % board.size));
+    }
+
+    /**
+     * a position in the tree, reached by the move in {@link Node#cell} made by {@link Node#mover}
+     */
+    private static final class Node {
+        final int cell;
+        final int mover;
+        final Node parent;
+        long key; // position hash with the team to move
+        final ArrayList<Node> children = new ArrayList<>(4);
+        int[] untried; // moves not yet expanded, filled when the node is first expanded
+        int untriedCount;
+        int visits;
+        int seeded; // visits taken from the table rather than played
+        double wins; // playouts won by the mover
+        boolean terminal; // the move ended the game
+
+        Node(int cell, int mover, Node parent) {
+            this.cell = cell;
+            this.mover = mover;
+            this.parent = parent;
+        }
+        Node select() {
+            double log = Math.log(visits);
+            Node best = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (Node child : children) {
+                double score = child.wins / child.visits + EXPLORATION * Math.sqrt(log / child.visits);
+                if (score > bestScore) {
+                    best = child;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * one worker's tree and its scratch game
+     */
+    private static final class Tree {
+        final Game root;
+        final Game scratch;
+        final SplittableRandom rng;
+        final TranspositionTable<Prior> table;
+        final Node top = new Node(-1, 0, null);
+        final int limit; // playout length after which the team with the most cells is counted as the winner
+        long nodes = 1;
+
+        Tree(Game root, SplittableRandom rng, TranspositionTable<Prior> table) {
+            this.root = root;
+            this.scratch = root.copy();
+            this.rng = rng;
+            this.table = table;
+            this.limit = root.board().cells * 8;
+        }
+        Tree grow(long deadline) {
+            do {
+                iterate();
+            } while (System.nanoTime() < deadline);
+            return this;
+        }
+        private void iterate() {
+            scratch.copyFrom(root);
+            Node node = top;
+            while (!node.terminal && node.untried != null && node.untriedCount == 0 && !node.children.isEmpty()) {
+                node = node.select();
+                play(node.cell);
+            }
+            if (!node.terminal) {
+                if (node.untried == null) {
+                    node.untried = validMoves();
+                    node.untriedCount = node.untried.length;
+                }
+                if (node.untriedCount > 0) {
+                    int k = rng.nextInt(node.untriedCount);
+                    int cell = node.untried[k];
+                    node.untried[k] = node.untried[-- node.untriedCount];
+                    int mover = scratch.turn();
+                    Node child = new Node(cell, mover, node);
+                    child.terminal = play(cell);
+                    child.key = scratch.board().hash ^ Zobrist.turn(scratch.turn());
+                    Prior prior = table.get(child.key);
+                    if (prior != null && prior.mover() == mover) {
+                        child.visits = child.seeded = Math.min(prior.visits(), PRIOR_VISITS);
+                        child.wins = prior.wins() * child.visits / prior.visits();
+                    }
+                    node.children.add(child);
+                    nodes ++;
+                    node = child;
+                }
+            }
+            int winner = node.terminal ? scratch.winner() : playout();
+            for (Node n = node; n != top; n = n.parent) {
+                n.visits ++;
+                if (n.mover == winner) {
+                    n.wins ++;
+                }
+                if (n.visits >= PUBLISH_VISITS && (n.visits & (n.visits - 1)) == 0) {
+                    table.put(n.key, new Prior(n.mover, n.visits, n.wins), n.visits);
+                }
+            }
+            top.visits ++;
+        }
+        private boolean play(int cell) {
+            int size = scratch.board().size;
+            return scratch.play(cell % size, cell / size);
+        }
+        /**
+         * lists the cells the team to move may play, the rule of {@link Game#isValidMove(Board, int, int, int)} without the bounds checks
+         */
+        private int[] validMoves() {
+            Board board = scratch.board();
+            int team = scratch.turn();
+            int n = 0;
+            for (int i = 0; i < board.cells; i ++) {
+                int t = board.team(i);
+                if (t == 0 || t == team) {
+                    n ++;
+                }
+            }
+            int[] moves = new int[n];
+            n = 0;
+            for (int i = 0; i < board.cells; i ++) {
+                int t = board.team(i);
+                if (t == 0 || t == team) {
+                    moves[n++] = i;
+                }
+            }
+            return moves;
+        }
+        /**
+         * plays random valid moves until someone wins or the limit is reached
+         * @return the winner, or the team holding the most cells when cut short
+         */
+        private int playout() {
+            Board board = scratch.board();
+            for (int m = 0; m < limit; m ++) {
+                int team = scratch.turn();
+                int cell = rng.nextInt(board.cells);
+                for (int tries = 0; board.team(cell) != 0 && board.team(cell) != team; tries ++) {
+                    cell = tries < 16 ? rng.nextInt(board.cells) : (cell + 1) % board.cells;
+                }
+                if (play(cell)) {
+                    return scratch.winner();
+                }
+            }
+            int leader = 1;
+            for (int t = 2; t <= scratch.players(); t ++) {
+                if (board.owned(t) > board.owned(leader)) {
+                    leader = t;
+                }
+            }
+            return leader;
+        }
+    }
+}
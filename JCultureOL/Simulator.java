@@ -0,0 +1,149 @@
+package JCultureOL;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * plays headless self-play games on every core to measure speed and balance
+ * <p>
+ * each worker owns one {@link Game} which it resets between games, and keeps its own counters, so workers share nothing but the count of games handed out
+ */
+final class Simulator {
+    private static final int BUCKETS = 33; // cascade lengths 0, 1, 2-3, 4-7 and so on up to the largest int
+    private static final int CHUNK = 64; // games a worker takes at a time
+
+    private final int size;
+    private final int players;
+    private final long games;
+    private final int threads;
+    private final int maxMoves;
+    private final String[] strategies; // strategy spec of each team, index 0 is team 1
+
+    /**
+     * per worker counters, merged once the workers finish
+     */
+    private static final class Stats {
+        long games, moves, unfinished;
+        final long[] wins; // indexed by team
+        final long[] cascades = new long[BUCKETS]; // moves by number of topples
+
+        Stats(int players) {
+            wins = new long[players + 1];
+        }
+        void merge(Stats other) {
+            games += other.games;
+            moves += other.moves;
+            unfinished += other.unfinished;
+            for (int t = 0; t < wins.length; t ++) {
+                wins[t] += other.wins[t];
+            }
+            for (int b = 0; b < BUCKETS; b ++) {
+                cascades[b] += other.cascades[b];
+            }
+        }
+    }
+
+    /**
+     * @param size width and height of the board
+     * @param players number of teams
+     * @param games number of games to play
+     * @param threads number of workers
+     * @param maxMoves moves after which a game is stopped and counted as unfinished
+     * @param strategies move source specs for {@link MoveSource#parse(String)}, handed to the teams in turn
+     */
+    Simulator(int size, int players, long games, int threads, int maxMoves, String[] strategies) {
+        if (players < 2) {
+            throw new IllegalArgumentException("a game needs at least two players");
+        }
+        this.size = size;
+        this.players = players;
+        this.games = games;
+        this.threads = threads;
+        this.maxMoves = maxMoves;
+        this.strategies = new String[players];
+        for (int t = 0; t < players; t ++) {
+            this.strategies[t] = strategies[t % strategies.length];
+        }
+    }
+    /**
+     * plays every game and prints a report
+     */
+    void run() throws Exception {
+        AtomicLong handedOut = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Stats>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int w = 0; w < threads; w ++) {
+                MoveSource[] sources = new MoveSource[players + 1];
+                for (int t = 1; t <= players; t ++) {
+                    sources[t] = MoveSource.parse(strategies[t - 1]);
+                }
+                results.add(pool.submit(() -> work(sources, handedOut)));
+            }
+            Stats total = new Stats(players);
+            for (Future<Stats> result : results) {
+                total.merge(result.get());
+            }
+            System.out.println(report(total, (System.nanoTime() - start) / 1e9));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    private Stats work(MoveSource[] sources, AtomicLong handedOut) throws Exception {
+        Stats stats = new Stats(players);
+        Game game = new Game(size, players, false);
+        Board board = game.board();
+        while (true) {
+            long first = handedOut.getAndAdd(CHUNK);
+            if (first >= games) {
+                return stats;
+            }
+            for (long g = first, end = Math.min(games, first + CHUNK); g < end; g ++) {
+                game.reset();
+                int moves = 0;
+                boolean won = false;
+                while (!won && moves < maxMoves) {
+                    long position = sources[game.turn()].nextMove(board, game.turn());
+                    won = game.play((int)(position & 0xffffffff), (int)(position >> 32));
+                    stats.cascades[bucket(game.topples())] ++;
+                    moves ++;
+                }
+                stats.games ++;
+                stats.moves += moves;
+                if (won) {
+                    stats.wins[game.winner()] ++;
+                } else {
+                    stats.unfinished ++;
+                }
+            }
+        }
+    }
+    private static int bucket(int topples) {
+        return 32 - Integer.numberOfLeadingZeros(topples);
+    }
+    private String report(Stats s, double seconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d games on %dx%d, %d players, %d threads in %.2fs%n", s.games, size, size, players, threads, seconds));
+        sb.append(String.format("%.0f games/s, %.0f moves/s, %.1f moves/game, %.2f%% unfinished after %d moves%n", s.games / seconds, s.moves / seconds, (double)s.moves / Math.max(1, s.games), 100.0 * s.unfinished / Math.max(1, s.games), maxMoves));
+        sb.append("wins:");
+        for (int t = 1; t <= players; t ++) {
+            sb.append(String.format(" team %d (%s) %.2f%%", t, strategies[t - 1], 100.0 * s.wins[t] / Math.max(1, s.games)));
+        }
+        sb.append(String.format("%ncascade length (topples per move):%n"));
+        int last = BUCKETS - 1;
+        while (last > 0 && s.cascades[last] == 0) {
+            last --;
+        }
+        for (int b = 0; b <= last; b ++) {
+            long lo = b == 0 ? 0 : 1L << (b - 1);
+            long hi = b == 0 ? 0 : (1L << b) - 1;
+            String range = lo == hi ? Long.toString(lo) : lo + "-" + hi;
+            sb.append(String.format("  %-12s %12d %6.2f%%%n", range, s.cascades[b], 100.0 * s.cascades[b] / Math.max(1, s.moves)));
+        }
+        return sb.toString().stripTrailing();
+    }
+}
@@ -0,0 +1,94 @@
+package JCultureOL;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * compact encoding of a whole board, used when a copy of the board has to cross the network
+ * <p>
+ * cells are written in index order as runs of equal cells, each run is its length and team as unsigned varints followed by the value as one byte. boards are mostly unowned ones early on and large owned areas later, so a board usually takes a small fraction of the three bytes a cell would take written out
+ */
+final class Snapshot {
+    private Snapshot() {}
+
+    /**
+     * @return the encoded board, without its size, which the reader has to know
+     */
+    static byte[] encode(Board board) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        int i = 0;
+        while (i < board.cells) {
+            int team = board.team(i);
+            int value = board.value(i);
+            int run = 0;
+            while (i + run < board.cells) {
+                int blank = team == 0 && value == 1 ? board.blank(i + run) : 0; // never written cells of a sparse board, taken a chunk row at a time
+                if (blank > 0) {
+                    run += blank;
+                } else if (board.team(i + run) == team && board.value(i + run) == value) {
+                    run ++;
+                } else {
+                    break;
+                }
+            }
+            varint(out, run);
+            varint(out, team);
+            out.write(value);
+            i += run;
+        }
+        return out.toByteArray();
+    }
+    /**
+     * replaces every cell of a board with the encoded ones, then recounts the cells held by each team and the hash
+     * @param data encoded board of the same size
+     * @param board board to overwrite
+     * @throws IOException if the data is malformed or encodes a board of another size
+     */
+    static void decode(byte[] data, Board board) throws IOException {
+        int[] at = {0}; // read position, shared with varint
+        int i = 0;
+        while (at[0] < data.length) {
+            int run = varint(data, at);
+            int team = varint(data, at);
+            if (at[0] >= data.length || run < 1 || run > board.cells - i || team > Short.MAX_VALUE) {
+                throw new IOException("malformed board snapshot");
+            }
+            byte value = data[at[0]++];
+            board.fill(i, run, team, value);
+            i += run;
+        }
+        if (i != board.cells) {
+            throw new IOException("board snapshot holds " + i + " cells, expected " + board.cells);
+        }
+        board.recount();
+    }
+    /**
+     * writes an unsigned varint, seven bits a byte with the high bit set on every byte but the last
+     */
+    static void varint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+    /**
+     * reads an unsigned varint
+     * @param at read position, advanced past the varint
+     * @throws IOException if the data ends first or the varint is longer than an int
+     */
+    static int varint(byte[] data, int[] at) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (at[0] >= data.length) {
+                throw new IOException("truncated varint");
+            }
+            int b = data[at[0]++];
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+}
@@ -0,0 +1,365 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * fans a running game out to read only spectators from a thread of its own, fed by the host's game loop or by a {@link Relay}, so watchers never cost the game more than handing over each move
+ * <p>
+ * the hub keeps its own copy of the board from the diffs it is handed, a spectator that connects is sent a {@link Snapshot} of it and then every move frame. writes never block, a spectator whose queued move frames pass {@link SpectatorHub#LAG_LIMIT} has them replaced by a fresh snapshot, and is dropped if it falls that far behind again before the snapshot is out
+ * <p>
+ * spectator protocol:
+ * <pre>
+ * spectator -> hub: (byte){hello} with {@link Lobby#FEATURE_SPECTATE} set, and {@link Lobby#FEATURE_DIFF} for diff frames
+ * hub -> spectator: 0x01 (int){size} (int){number of non-default team colors} {r} {g} {b}...
+ * hub -> spectator: 0x03 (int){length} {snapshot}
+ * loop {
+ *   hub -> spectator: 0x02 {x} {y} {TEAM} 0x00 (long){hash}, or 0x04 with (int){length} {diff} added
+ *   hub -> spectator: 0x03 (int){length} {snapshot}, when the spectator was skipped ahead or asked for it
+ *   spectator -> hub: (long){-1}, {@link HostLoop#RESYNC} if its board hashes differently
+ * }
+ * </pre>
+ */
+final class SpectatorHub {
+    private static final int LAG_LIMIT = 256 * 1024; // bytes of move frames queued for one spectator before it is skipped ahead
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final byte[] welcome;
+    private final Board mirror;
+    private final Runnable desync; // called on the hub thread when a move does not hash as it should, null to ignore
+    private final ConcurrentLinkedQueue<Object> events = new ConcurrentLinkedQueue<>();
+    private final ArrayList<Viewer> viewers = new ArrayList<>();
+    private final Thread thread;
+    private byte[] snapshot; // snapshot frame of the mirror, null when a move has made it stale
+    private volatile boolean closing;
+    private long joined, skipped, dropped;
+
+    private record Move(int x, int y, int team, byte[] diff, long hash) {}
+    private record Reset(byte[] snapshot) {}
+
+    /**
+     * per spectator connection state
+     */
+    private static final class Viewer {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(8).limit(1); // the hello byte, then RESYNC requests
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        int lag; // bytes of move frames left in out
+        boolean welcomed;
+        boolean diffs;
+        ByteBuffer skip; // snapshot the spectator was skipped ahead to, until it is written
+
+        Viewer(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * starts accepting spectators
+     * @param server bound listening channel, closed with the hub
+     * @param size board size
+     * @param rgb custom team colors as {@link SpectatorHub#rgb(Color[])} gives them
+     * @param desync called on the hub thread when a move leaves the hub's board with another hash than the sender's, null to ignore
+     * @throws IOException
+     */
+    SpectatorHub(ServerSocketChannel server, int size, byte[] rgb, Runnable desync) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.mirror = new Board(size);
+        this.desync = desync;
+        this.welcome = ByteBuffer.allocate(9 + rgb.length).put((byte)0x01).putInt(size).putInt(rgb.length / 3).put(rgb).array();
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::loop, "spectators");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    /**
+     * @return the custom team colors, those past the eight defaults, as r g b bytes
+     */
+    static byte[] rgb(Color[] colors) {
+        byte[] rgb = new byte[Math.max(0, colors.length - 8) * 3];
+        for (int j = 8; j < colors.length; j ++) {
+            FullColor c = (FullColor)colors[j];
+            rgb[(j - 8) * 3] = (byte)c.r;
+            rgb[(j - 8) * 3 + 1] = (byte)c.g;
+            rgb[(j - 8) * 3 + 2] = (byte)c.b;
+        }
+        return rgb;
+    }
+    /**
+     * hands a move over to be sent to every spectator, never blocks
+     * @param diff the cells the move changed as {@link Diff#encode(Board)} gives them
+     * @param hash hash of the board after the move
+     */
+    void move(int x, int y, int team, byte[] diff, long hash) {
+        events.add(new Move(x, y, team, diff, hash));
+        selector.wakeup();
+    }
+    /**
+     * replaces the board with an encoded one, every spectator is sent the new board
+     */
+    void reset(byte[] snapshot) {
+        events.add(new Reset(snapshot));
+        selector.wakeup();
+    }
+    /**
+     * stops accepting spectators, gives those still watching a few seconds to take what is queued for them and closes them
+     */
+    void close() {
+        closing = true;
+        selector.wakeup();
+        try {
+            thread.join(6000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    /**
+     * @return how many spectators joined, were skipped ahead and were dropped, as text
+     */
+    synchronized String stats() {
+        return joined + " spectators joined, " + skipped + " skipped ahead, " + dropped + " dropped";
+    }
+    private void loop() {
+        long deadline = 0;
+        try {
+            while (true) {
+                selector.select(closing ? 100 : 0);
+                Object event;
+                while ((event = events.poll()) != null) {
+                    handle(event);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Viewer viewer = (Viewer)key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            flush(viewer);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(viewer);
+                        }
+                    } catch (IOException e) {
+                        drop(viewer, false);
+                    }
+                }
+                if (closing) {
+                    if (deadline == 0) {
+                        deadline = System.currentTimeMillis() + 5000;
+                        server.close();
+                    }
+                    if (!pending() || System.currentTimeMillis() >= deadline) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (Viewer viewer : new ArrayList<>(viewers)) {
+                drop(viewer, false);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {}
+        }
+    }
+    private boolean pending() {
+        for (Viewer viewer : viewers) {
+            if (!viewer.out.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private void handle(Object event) throws IOException {
+        if (event instanceof Reset r) {
+            Snapshot.decode(r.snapshot(), mirror);
+            snapshot = null;
+            for (Viewer viewer : new ArrayList<>(viewers)) {
+                if (viewer.welcomed) {
+                    ahead(viewer);
+                }
+            }
+            return;
+        }
+        Move m = (Move)event;
+        Diff.apply(m.diff(), mirror, m.team());
+        snapshot = null;
+        if (mirror.hash != m.hash() && desync != null) {
+            desync.run();
+        }
+        byte[] plain = ByteBuffer.allocate(22).put((byte)0x02).putInt(m.x()).putInt(m.y()).putInt(m.team()).put((byte)0x00).putLong(m.hash()).array();
+        byte[] thin = null; // built for the first spectator that takes diffs
+        for (Viewer viewer : new ArrayList<>(viewers)) { // a spectator may be dropped while queueing
+            if (!viewer.welcomed) {
+                continue;
+            }
+            if (viewer.diffs && thin == null) {
+                thin = ByteBuffer.allocate(26 + m.diff().length).put(plain).put(0, (byte)0x04).putInt(m.diff().length).put(m.diff()).array();
+            }
+            queue(viewer, viewer.diffs ? thin : plain);
+        }
+    }
+    private byte[] snapshotFrame() {
+        if (snapshot == null) {
+            byte[] data = Snapshot.encode(mirror);
+            snapshot = ByteBuffer.allocate(5 + data.length).put((byte)0x03).putInt(data.length).put(data).array();
+        }
+        return snapshot;
+    }
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Viewer viewer = new Viewer(channel);
+            viewer.key = channel.register(selector, SelectionKey.OP_READ, viewer);
+            viewers.add(viewer);
+        }
+    }
+    /**
+     * reads the hello byte of a new spectator, after that only resync requests
+     */
+    private void read(Viewer viewer) throws IOException {
+        if (viewer.channel.read(viewer.in) == -1) {
+            drop(viewer, false);
+            return;
+        }
+        if (viewer.in.hasRemaining()) {
+            return;
+        }
+        viewer.in.flip();
+        if (!viewer.welcomed) {
+            int hello = viewer.in.get();
+            viewer.in.clear();
+            if ((hello & Lobby.FEATURE_SPECTATE) == 0) {
+                drop(viewer, false);
+                return;
+            }
+            viewer.welcomed = true;
+            viewer.diffs = (hello & Lobby.FEATURE_DIFF) != 0;
+            synchronized (this) {
+                joined ++;
+            }
+            queue(viewer, welcome);
+            queue(viewer, snapshotFrame());
+            return;
+        }
+        long request = viewer.in.getLong();
+        viewer.in.clear();
+        if (request == HostLoop.RESYNC) {
+            ahead(viewer);
+        }
+    }
+    /**
+     * queues a frame and writes what the socket takes right now, a spectator that is too far behind is skipped ahead instead
+     */
+    private void queue(Viewer viewer, byte[] frame) {
+        if (isMove(frame[0])) {
+            if (viewer.lag + frame.length > LAG_LIMIT) {
+                skip(viewer);
+                return;
+            }
+            viewer.lag += frame.length;
+        }
+        viewer.out.add(ByteBuffer.wrap(frame));
+        try {
+            flush(viewer);
+        } catch (IOException e) {
+            drop(viewer, false);
+        }
+    }
+    private static boolean isMove(byte code) {
+        return code == 0x02 || code == 0x04;
+    }
+    private void skip(Viewer viewer) {
+        if (viewer.skip != null) { // still behind since the last skip
+            drop(viewer, true);
+            return;
+        }
+        ahead(viewer);
+        viewer.skip = viewer.out.peekLast();
+        synchronized (this) {
+            skipped ++;
+        }
+    }
+    /**
+     * throws away every move frame and snapshot the spectator has not started to receive and queues a fresh snapshot in their place
+     */
+    private void ahead(Viewer viewer) {
+        ArrayDeque<ByteBuffer> kept = new ArrayDeque<>();
+        viewer.lag = 0;
+        for (ByteBuffer buf : viewer.out) {
+            if (buf.position() > 0 || buf.get(0) == 0x01) { // a frame being written has to be finished to keep the stream in step, and the welcome is needed whatever follows
+                kept.add(buf);
+                if (isMove(buf.get(0))) {
+                    viewer.lag += buf.remaining();
+                }
+            } else if (buf == viewer.skip) {
+                viewer.skip = null; // replaced by the new snapshot, skip() marks it again if this is a skip
+            }
+        }
+        viewer.out.clear();
+        viewer.out.addAll(kept);
+        viewer.out.add(ByteBuffer.wrap(snapshotFrame()));
+        try {
+            flush(viewer);
+        } catch (IOException e) {
+            drop(viewer, false);
+        }
+    }
+    private void flush(Viewer viewer) throws IOException {
+        while (!viewer.out.isEmpty()) {
+            ByteBuffer buf = viewer.out.peek();
+            int n = viewer.channel.write(buf);
+            if (isMove(buf.get(0))) {
+                viewer.lag -= n;
+            }
+            if (buf.hasRemaining()) {
+                viewer.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            viewer.out.poll();
+            if (buf == viewer.skip) {
+                viewer.skip = null;
+            }
+        }
+        viewer.key.interestOps(SelectionKey.OP_READ);
+    }
+    private void drop(Viewer viewer, boolean slow) {
+        if (!viewers.remove(viewer)) {
+            return;
+        }
+        if (slow) {
+            synchronized (this) {
+                dropped ++;
+            }
+        }
+        viewer.key.cancel();
+        try {
+            viewer.channel.close();
+        } catch (IOException e) {}
+    }
+}
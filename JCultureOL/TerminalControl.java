@@ -0,0 +1,23 @@
+package JCultureOL;
+
+import java.io.IOException;
+
+/**
+ * in process control of the terminal on stdin, implemented by <code>NativeTerminal</code> which is built apart from the rest of the game and loaded by name, see the build script
+ */
+interface TerminalControl {
+    /**
+     * puts the terminal in raw mode
+     * @throws IOException
+     */
+    void makeRaw() throws IOException;
+    /**
+     * puts back the settings the terminal had when it was opened
+     * @throws IOException
+     */
+    void restore() throws IOException;
+    /**
+     * @return <code>{rows, columns}</code>, or null if the terminal does not report a size
+     */
+    int[] size();
+}
@@ -0,0 +1,31 @@
+package JCultureOL;
+
+/**
+ * resolves a move on a {@link Board} including every topple it causes
+ */
+interface Toppler {
+    /**
+     * places a piece for a team and topples until the board is stable or the team owns every cell
+     * @param x column of the move
+     * @param y row of the move
+     * @param team team making the move
+     * @return true if the team owns the whole board
+     */
+    boolean run(int x, int y, int team);
+    /**
+     * @return the number of topples caused by the last move
+     */
+    int topples();
+    /**
+     * picks the topple engine for a board
+     * @param board board the engine works on
+     * @param parallel whether the wavefront engine may be used, boards smaller than {@link WavefrontCascade#THRESHOLD} and sparse boards are always toppled sequentially
+     * @return the engine
+     */
+    static Toppler create(Board board, boolean parallel) {
+        if (parallel && board.size >= WavefrontCascade.THRESHOLD && !board.sparse()) {
+            return new WavefrontCascade(board);
+        }
+        return new Cascade(board);
+    }
+}
@@ -0,0 +1,123 @@
+package JCultureOL;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * fixed size map from position hashes to values, shared by any number of threads
+ * <p>
+ * slots come in pairs, a hash may live in either slot of the pair its bits pick. each pair is guarded by one of a fixed set of locks, so threads only wait for each other when they touch slots under the same lock
+ * <p>
+ * when both slots of a pair hold other positions, the new entry replaces whichever is worth less, entries stored before the last {@link TranspositionTable#newGeneration()} first and then the one with the lower weight. an entry that is worth less than both is not stored
+ * @param <V> stored value, never null
+ */
+final class TranspositionTable<V> {
+    private static final int STRIPES = 64;
+
+    private final long[] keys;
+    private final Object[] values; // null marks an empty slot, a hash of 0 is a real position
+    private final int[] weights;
+    private final int[] generations;
+    private final int mask; // pairs - 1
+    private final Object[] locks = new Object[STRIPES];
+    private volatile int generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity number of entries, rounded up to a power of two of at least two
+     */
+    TranspositionTable(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        keys = new long[n];
+        values = new Object[n];
+        weights = new int[n];
+        generations = new int[n];
+        mask = n / 2 - 1;
+        for (int s = 0; s < STRIPES; s ++) {
+            locks[s] = new Object();
+        }
+    }
+    /**
+     * @return the value stored for the hash, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(long hash) {
+        int pair = pair(hash);
+        synchronized (locks[pair & (STRIPES - 1)]) {
+            for (int slot = pair * 2; slot < pair * 2 + 2; slot ++) {
+                if (values[slot] != null && keys[slot] == hash) {
+                    hits.increment();
+                    return (V)values[slot];
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+    /**
+     * stores a value unless both slots it could go in hold more valuable entries
+     * @param hash position hash
+     * @param value value to store
+     * @param weight how much the entry is worth keeping, such as a search depth or visit count
+     * @return true if the value was stored
+     */
+    boolean put(long hash, V value, int weight) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        int pair = pair(hash);
+        int gen = generation;
+        synchronized (locks[pair & (STRIPES - 1)]) {
+            int first = pair * 2;
+            int victim = -1;
+            for (int slot = first; slot < first + 2; slot ++) {
+                if (values[slot] == null || keys[slot] == hash) { // free or already this position
+                    victim = slot;
+                    break;
+                }
+            }
+            if (victim < 0) {
+                victim = worse(first, first + 1, gen);
+                if (generations[victim] == gen && weights[victim] > weight) {
+                    return false;
+                }
+            }
+            keys[victim] = hash;
+            values[victim] = value;
+            weights[victim] = weight;
+            generations[victim] = gen;
+            return true;
+        }
+    }
+    /**
+     * marks every stored entry as old, old entries are replaced before current ones whatever their weight
+     */
+    void newGeneration() {
+        generation ++;
+    }
+    /**
+     * @return the number of entries the table can hold
+     */
+    int capacity() {
+        return keys.length;
+    }
+    /**
+     * @return lookups that found a value and lookups that did not, as text
+     */
+    String stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        return String.format("%d hits, %d misses (%.1f%%)", h, m, 100.0 * h / Math.max(1, h + m));
+    }
+    private int worse(int a, int b, int gen) {
+        boolean oldA = generations[a] != gen;
+        boolean oldB = generations[b] != gen;
+        if (oldA != oldB) {
+            return oldA ? a : b;
+        }
+        return weights[a] <= weights[b] ? a : b;
+    }
+    private int pair(long hash) {
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,343 @@
+package JCultureOL;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * generation based topple engine for very large boards, every full cell of a wave topples at once and the work is split into row bands on a fork/join pool
+ * <p>
+ * toppling is order independent, so any move that settles ends on exactly the same board as the depth first {@link Cascade}. a move that gives the team every cell is the exception, the depth first engine stops the moment the last cell falls and the values it leaves depend on its order, so such a move is undone and played again depth first. hosts and guests then agree on the board and its hash whichever engine each of them uses
+ */
+final class WavefrontCascade implements Toppler {
+    static final int THRESHOLD = 512; // boards narrower than this always use the sequential engine
+    private static final int BAND_ROWS = 64;
+    private static final int LEAF_CELLS = 4096; // waves with fewer full cells than this are resolved on the calling thread
+
+    private final Board board;
+    private final ForkJoinPool pool;
+    private final Band[] bands;
+    private final int[] queued; // wave number for which each cell was last put on a frontier
+    private final Cascade sequential; // plays moves that conquer the board again
+    private int wave;
+    private int team;
+    private int topples;
+
+    WavefrontCascade(Board board) {
+        this(board, ForkJoinPool.commonPool());
+    }
+    WavefrontCascade(Board board, ForkJoinPool pool) {
+        if (board.sparse()) {
+            throw new IllegalArgumentException("the wavefront engine needs a flat board");
+        }
+        this.board = board;
+        this.pool = pool;
+        this.queued = new int[board.cells];
+        this.sequential = new Cascade(board);
+        this.bands = new Band[(board.size + BAND_ROWS - 1) / BAND_ROWS];
+        for (int i = 0; i < bands.length; i ++) {
+            bands[i] = new Band(i, i * BAND_ROWS, Math.min(board.size, (i + 1) * BAND_ROWS));
+        }
+    }
+    @Override
+    public boolean run(int x, int y, int team) {
+        Board b = board;
+        this.team = team;
+        topples = 0;
+        int i = b.index(x, y);
+        int oldTeam = b.teams[i];
+        int oldValue = b.values[i];
+        b.beginMove();
+        b.hash ^= Zobrist.key(i, b.teams[i], b.values[i]);
+        b.setTeam(i, team);
+        b.values[i] ++;
+        b.hash ^= Zobrist.key(i, team, b.values[i]);
+        if (b.ownsAll(team) || !b.isFull(i)) {
+            b.touch(i);
+            return b.ownsAll(team);
+        }
+        for (Band band : bands) {
+            band.prepare(b.teamSlots());
+        }
+        bands[y / BAND_ROWS].touch(i);
+        boolean won = false;
+        try {
+            won = cascade(y, i);
+        } finally {
+            for (Band band : bands) {
+                band.finish(won);
+            }
+        }
+        if (won) {
+            b.teams[i] = (short)oldTeam;
+            b.values[i] = (byte)oldValue;
+            b.recount(); // counts and hash as they were before the move, a conquest happens once a game
+            won = sequential.run(x, y, team);
+            topples = sequential.topples();
+        }
+        return won;
+    }
+    /**
+     * runs waves until no cell is full, starting from the full cell i on row y
+     */
+    private boolean cascade(int y, int i) {
+        Board b = board;
+        nextWave();
+        queued[i] = wave;
+        bands[y / BAND_ROWS].frontier.add(i);
+        int pending = 1;
+        while (pending > 0) {
+            if (pending < LEAF_CELLS) {
+                for (Band band : bands) {
+                    band.fire();
+                }
+                for (Band band : bands) {
+                    band.spread();
+                }
+            } else {
+                pool.invoke(new Wave(0, bands.length, false));
+                pool.invoke(new Wave(0, bands.length, true));
+            }
+            pending = 0;
+            for (Band band : bands) {
+                b.transfer(band.lost, team, band.gained);
+                topples += band.topples;
+                pending += band.next.size;
+                band.swap();
+            }
+            if (b.ownsAll(team)) {
+                return true;
+            }
+            nextWave();
+        }
+        return false;
+    }
+    @Override
+    public int topples() {
+        return topples;
+    }
+    private void nextWave() {
+        if (++wave == Integer.MAX_VALUE) { // restamp the live frontier before the counter wraps
+            Arrays.fill(queued, 0);
+            wave = 1;
+            for (Band band : bands) {
+                for (int k = 0; k < band.frontier.size; k ++) {
+                    queued[band.frontier.data[k]] = wave;
+                }
+            }
+        }
+    }
+
+    /**
+     * growable list of cell indices which is cleared rather than reallocated between waves
+     */
+    private static final class IntList {
+        int[] data = new int[16];
+        int size;
+
+        void add(int v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = v;
+        }
+    }
+
+    /**
+     * rows [lo, hi) of the board, only the band's own worker ever writes to cells in those rows
+     */
+    private final class Band {
+        private final int index, lo, hi;
+        IntList frontier = new IntList(); // full cells that topple this wave
+        IntList next = new IntList(); // full cells that topple next wave
+        final IntList fired = new IntList();
+        final IntList firstRow = new IntList(); // cells that fired in row lo, their upper neighbours belong to the band above
+        final IntList lastRow = new IntList(); // cells that fired in row hi - 1, their lower neighbours belong to the band below
+        final IntList changed = new IntList();
+        final IntList undo = new IntList(); // team and value each changed cell had before the move, packed as team << 8 | value
+        private final long[] touched; // one bit per cell of the band changed by the current move
+        int[] lost = new int[8];
+        int gained;
+        int topples;
+        long hash; // xor of the key changes made to the band's cells this move
+
+        Band(int index, int lo, int hi) {
+            this.index = index;
+            this.lo = lo;
+            this.hi = hi;
+            this.touched = new long[((hi - lo) * board.size + 63) >>> 6];
+        }
+        void prepare(int teamSlots) {
+            if (lost.length < teamSlots) {
+                lost = new int[teamSlots];
+            }
+            frontier.size = 0;
+        }
+        /**
+         * first half of a wave, takes the capacity off every cell in the frontier
+         */
+        void fire() {
+            Board b = board;
+            fired.size = 0;
+            firstRow.size = 0;
+            lastRow.size = 0;
+            int first = lo * b.size;
+            int last = (hi - 1) * b.size;
+            for (int k = 0; k < frontier.size; k ++) {
+                int c = frontier.data[k];
+                touch(c);
+                hash ^= Zobrist.key(c, b.teams[c], b.values[c]);
+                b.values[c] -= b.capacity[c];
+                hash ^= Zobrist.key(c, b.teams[c], b.values[c]);
+                fired.add(c);
+                if (c < first + b.size) {
+                    firstRow.add(c);
+                }
+                if (c >= last) {
+                    lastRow.add(c);
+                }
+            }
+            topples = fired.size;
+        }
+        /**
+         * second half of a wave, hands one value to every neighbour of a fired cell that lies in this band, including neighbours of cells that fired in the bands above and below
+         */
+        void spread() {
+            Board b = board;
+            int size = b.size;
+            Arrays.fill(lost, 0);
+            gained = 0;
+            next.size = 0;
+            int stamp = wave + 1;
+            int loC = lo * size;
+            int hiC = hi * size;
+            for (int k = 0; k < fired.size; k ++) {
+                int c = fired.data[k];
+                if (b.values[c] > b.capacity[c] && queued[c] != stamp) {
+                    queued[c] = stamp;
+                    next.add(c);
+                }
+                int x = c % size;
+                if (c - size >= loC) {
+                    receive(c - size, stamp);
+                }
+                if (x > 0) {
+                    receive(c - 1, stamp);
+                }
+                if (x < size - 1) {
+                    receive(c + 1, stamp);
+                }
+                if (c + size < hiC) {
+                    receive(c + size, stamp);
+                }
+            }
+            if (index > 0) {
+                IntList above = bands[index - 1].lastRow;
+                for (int k = 0; k < above.size; k ++) {
+                    receive(above.data[k] + size, stamp);
+                }
+            }
+            if (index < bands.length - 1) {
+                IntList below = bands[index + 1].firstRow;
+                for (int k = 0; k < below.size; k ++) {
+                    receive(below.data[k] - size, stamp);
+                }
+            }
+        }
+        private void receive(int c, int stamp) {
+            Board b = board;
+            touch(c);
+            int old = b.teams[c];
+            hash ^= Zobrist.key(c, old, b.values[c]);
+            b.values[c] ++;
+            if (old != team) {
+                lost[old] ++;
+                gained ++;
+                b.teams[c] = (short)team;
+            }
+            hash ^= Zobrist.key(c, team, b.values[c]);
+            if (b.values[c] > b.capacity[c] && queued[c] != stamp) {
+                queued[c] = stamp;
+                next.add(c);
+            }
+        }
+        /**
+         * notes a cell the move is about to change, called before each change so the first call sees the cell as it was
+         */
+        void touch(int c) {
+            int local = c - lo * board.size;
+            long bit = 1L << local;
+            if ((touched[local >>> 6] & bit) == 0) {
+                touched[local >>> 6] |= bit;
+                changed.add(c);
+                undo.add(board.teams[c] << 8 | (board.values[c] & 0xff));
+            }
+        }
+        /**
+         * hands the cells and hash changes of this band to the board and clears them for the next move
+         * @param revert whether to put the cells back as they were before the move instead, the counts and hash are then left for the caller to rebuild
+         */
+        void finish(boolean revert) {
+            if (revert) {
+                for (int k = 0; k < changed.size; k ++) {
+                    int c = changed.data[k];
+                    board.teams[c] = (short)(undo.data[k] >> 8);
+                    board.values[c] = (byte)undo.data[k];
+                }
+            } else {
+                board.addChanged(changed.data, changed.size);
+                board.hash ^= hash;
+            }
+            hash = 0;
+            int base = lo * board.size;
+            for (int k = 0; k < changed.size; k ++) {
+                int local = changed.data[k] - base;
+                touched[local >>> 6] &= ~(1L << local);
+            }
+            changed.size = 0;
+            undo.size = 0;
+        }
+        void swap() {
+            IntList t = frontier;
+            frontier = next;
+            next = t;
+        }
+    }
+
+    /**
+     * runs one half of a wave over bands [lo, hi), splitting until each piece holds few enough full cells
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private final class Wave extends RecursiveAction {
+        private final int lo, hi;
+        private final boolean spread;
+
+        Wave(int lo, int hi, boolean spread) {
+            this.lo = lo;
+            this.hi = hi;
+            this.spread = spread;
+        }
+        @Override
+        protected void compute() {
+            if (hi - lo > 1 && work() > LEAF_CELLS) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Wave(lo, mid, spread), new Wave(mid, hi, spread));
+                return;
+            }
+            for (int i = lo; i < hi; i ++) {
+                if (spread) {
+                    bands[i].spread();
+                } else {
+                    bands[i].fire();
+                }
+            }
+        }
+        private int work() {
+            int n = 0;
+            for (int i = lo; i < hi; i ++) {
+                n += spread ? bands[i].fired.size : bands[i].frontier.size;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package JCultureOL;
+
+/**
+ * zobrist keys for board positions, the hash of a board is the xor of one key per cell chosen by the cell's team and value
+ * <p>
+ * keys are mixed from the cell, team and value on demand rather than looked up, so any board size and team count works without a table. an unowned cell holding 1 has the key 0, so a new board hashes to 0
+ */
+final class Zobrist {
+    private static final long SEED = 0x6a09e667f3bcc909L;
+
+    private Zobrist() {}
+
+    /**
+     * @return the key of a cell in the given state
+     */
+    static long key(int cell, int team, int value) {
+        if (team == 0 && value == 1) {
+            return 0;
+        }
+        return mix(SEED + ((long)cell << 24 ^ (long)team << 8 ^ (value & 0xff)));
+    }
+    /**
+     * @return the key of the team to move, xored into a position hash by code that tells positions apart by whose turn it is
+     */
+    static long turn(int team) {
+        return mix(~SEED - team);
+    }
+    /**
+     * @return the hash of a whole board computed from scratch, equal to the one the topple engines keep up to date
+     */
+    static long of(Board board) {
+        long h = 0;
+        for (int i = 0; i < board.cells; ) {
+            int run = board.blank(i); // cells whose key is 0
+            if (run > 0) {
+                i += run;
+                continue;
+            }
+            h ^= key(i, board.team(i), board.value(i));
+            i ++;
+        }
+        return h;
+    }
+    /**
+     * splitmix64 finaliser
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
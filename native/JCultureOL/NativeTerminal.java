@@ -0,0 +1,101 @@
+package JCultureOL;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * switches the terminal on stdin between raw and normal mode in process by calling libc through the foreign function api, so a mode switch costs a system call instead of starting stty
+ * <p>
+ * the settings found when the terminal is first opened are kept in memory and put back by a shutdown hook, so the terminal is not left raw if the game exits at a prompt
+ * <p>
+ * the foreign function api is a preview in java 21, so this class is compiled on its own with the preview enabled and only ever loaded by name from {@link InterruptableInputHandler}, the rest of the game builds and runs without it
+ */
+final class NativeTerminal implements TerminalControl {
+    private static final int STDIN = 0;
+    private static final int TCSANOW = 0;
+    private static final long TERMIOS_BYTES = 256; // larger than struct termios on any linux libc
+    private static final long TIOCGWINSZ = 0x5413;
+
+    private final MethodHandle tcgetattr, tcsetattr, cfmakeraw, ioctl;
+    private final MemorySegment saved, raw, winsize;
+    private boolean isRaw;
+
+    private NativeTerminal() throws Throwable {
+        Linker linker = Linker.nativeLinker();
+        SymbolLookup libc = linker.defaultLookup();
+        tcgetattr = linker.downcallHandle(find(libc, "tcgetattr"), FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        tcsetattr = linker.downcallHandle(find(libc, "tcsetattr"), FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        cfmakeraw = linker.downcallHandle(find(libc, "cfmakeraw"), FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        ioctl = linker.downcallHandle(find(libc, "ioctl"), FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS), Linker.Option.firstVariadicArg(2));
+        Arena arena = Arena.global(); // lives as long as the process, like the terminal settings it holds
+        saved = arena.allocate(TERMIOS_BYTES);
+        raw = arena.allocate(TERMIOS_BYTES);
+        winsize = arena.allocate(8); // struct winsize, four unsigned shorts starting with rows and columns
+        if ((int)tcgetattr.invokeExact(STDIN, saved) != 0) {
+            throw new IOException("stdin is not a terminal");
+        }
+        raw.copyFrom(saved);
+        cfmakeraw.invokeExact(raw);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::restoreQuietly, "terminal-restore"));
+    }
+    /**
+     * @return the terminal on stdin
+     * @throws Throwable if this is not linux, libc cannot be linked or stdin is not a terminal
+     */
+    static NativeTerminal open() throws Throwable {
+        if (!System.getProperty("os.name").toLowerCase().contains("linux")) {
+            throw new UnsupportedOperationException("native terminal control is only implemented for linux");
+        }
+        return new NativeTerminal();
+    }
+    private static MemorySegment find(SymbolLookup lookup, String name) {
+        return lookup.find(name).orElseThrow(() -> new UnsatisfiedLinkError(name));
+    }
+    @Override
+    public synchronized void makeRaw() throws IOException {
+        set(raw);
+        isRaw = true;
+    }
+    @Override
+    public synchronized void restore() throws IOException {
+        set(saved);
+        isRaw = false;
+    }
+    @Override
+    public synchronized int[] size() {
+        try {
+            if ((int)ioctl.invokeExact(STDIN, TIOCGWINSZ, winsize) != 0) {
+                return null;
+            }
+        } catch (Throwable e) {
+            return null;
+        }
+        int rows = Short.toUnsignedInt(winsize.get(ValueLayout.JAVA_SHORT, 0));
+        int cols = Short.toUnsignedInt(winsize.get(ValueLayout.JAVA_SHORT, 2));
+        return rows > 0 && cols > 0 ? new int[]{rows, cols} : null;
+    }
+    private void set(MemorySegment termios) throws IOException {
+        int result;
+        try {
+            result = (int)tcsetattr.invokeExact(STDIN, TCSANOW, termios);
+        } catch (Throwable e) {
+            throw new IOException("tcsetattr failed", e);
+        }
+        if (result != 0) {
+            throw new IOException("tcsetattr failed");
+        }
+    }
+    private synchronized void restoreQuietly() {
+        if (isRaw) {
+            try {
+                set(saved);
+            } catch (IOException e) {}
+        }
+    }
+}
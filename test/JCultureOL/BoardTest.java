@@ -0,0 +1,101 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * a sparse board must behave exactly like a flat one of the same size
+ */
+class BoardTest {
+    @Test
+    void sparseBoardsPlayLikeFlatOnes() throws IOException {
+        Random random = new Random(25);
+        for (int size : new int[]{1, 2, 63, 64, 65, 130}) {
+            Board flat = new Board(size, false);
+            Board sparse = new Board(size, true);
+            Cascade flatCascade = new Cascade(flat);
+            Cascade sparseCascade = new Cascade(sparse);
+            for (int m = 0; m < 3000; m ++) {
+                int team = m % 3 + 1;
+                int x = random.nextInt(size), y = random.nextInt(size);
+                if (!Game.isValidMove(flat, x, y, team)) {
+                    continue;
+                }
+                boolean won = flatCascade.run(x, y, team);
+                assertEquals(won, sparseCascade.run(x, y, team));
+                assertEquals(flat.hash, sparse.hash, "size " + size + " move " + m);
+                assertArrayEquals(flat.copyChanged(), sparse.copyChanged());
+                if (won || m % 100 == 0) {
+                    WavefrontCascadeTest.assertSame(flat, sparse, "size " + size + " move " + m);
+                    for (int i = 0; i < flat.cells; i ++) {
+                        assertEquals(flat.capacity(i), sparse.capacity(i));
+                        assertEquals(flat.isFull(i), sparse.isFull(i));
+                    }
+                    assertEquals(Zobrist.of(flat), Zobrist.of(sparse));
+                    assertArrayEquals(Snapshot.encode(flat), Snapshot.encode(sparse));
+                    assertArrayEquals(Diff.encode(flat), Diff.encode(sparse));
+                    Board decoded = new Board(size, true);
+                    Snapshot.decode(Snapshot.encode(flat), decoded);
+                    WavefrontCascadeTest.assertSame(flat, decoded, "decoded");
+                }
+                if (won) {
+                    break;
+                }
+            }
+        }
+    }
+    @Test
+    void copiesKeepTheStorage() {
+        Game game = new Game(100, false);
+        Board sparse = new Board(100, true);
+        new Cascade(sparse).run(70, 70, 2);
+        Board copy = sparse.copy();
+        assertTrue(copy.sparse());
+        WavefrontCascadeTest.assertSame(sparse, copy, "copy");
+        Board other = new Board(100, true);
+        new Cascade(other).run(5, 5, 1); // a chunk the source does not have
+        other.copyFrom(sparse);
+        WavefrontCascadeTest.assertSame(sparse, other, "copyFrom");
+        assertEquals(sparse.storedCells(), other.storedCells());
+        assertThrows(IllegalArgumentException.class, () -> game.board().copyFrom(sparse));
+    }
+    @Test
+    void storageFollowsTheAreaInPlay() throws IOException {
+        Game game = new Game(10000, 2, false);
+        Board board = game.board();
+        assertTrue(board.sparse());
+        assertEquals(0, board.storedCells());
+        assertEquals(1, board.team(9999, 9999) + board.value(9999, 9999)); // unowned holding 1
+        for (int m = 0; m < 500; m ++) {
+            int x = 5000 + m % 20, y = 5000 + m / 20 % 20;
+            if (game.isValidMove(x, y, game.turn())) {
+                game.play(x, y);
+            }
+        }
+        assertEquals(Board.CHUNK * Board.CHUNK, board.storedCells()); // 5000 to 5039 lies in one chunk
+        assertEquals(Zobrist.of(board), board.hash);
+        Board decoded = new Board(10000);
+        Snapshot.decode(Snapshot.encode(board), decoded);
+        assertEquals(board.hash, decoded.hash);
+        assertEquals(board.storedCells(), decoded.storedCells()); // runs of blank cells allocate nothing
+        board.reset();
+        assertEquals(0, board.storedCells());
+        assertEquals(board.cells, board.owned(0));
+    }
+    @Test
+    void sparseBoardsAreNeverToppledByTheWavefrontEngine() {
+        Board sparse = new Board(WavefrontCascade.THRESHOLD, true);
+        assertInstanceOf(Cascade.class, Toppler.create(sparse, true));
+        assertThrows(IllegalArgumentException.class, () -> new WavefrontCascade(sparse));
+        assertFalse(new Game(Board.SPARSE_SIZE + 1, 2, true).board().sparse()); // kept flat for the wavefront engine
+        assertTrue(new Game(Board.SPARSE_SIZE + 1, 2, false).board().sparse());
+    }
+}
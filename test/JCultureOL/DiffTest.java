@@ -0,0 +1,47 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * a guest that takes every move as a diff must keep the same board as one that topples the moves itself
+ */
+class DiffTest {
+    @Test
+    void applyingDiffsFollowsAToppledGame() throws IOException {
+        Random random = new Random(20);
+        for (int size : new int[]{1, 5, 20}) {
+            Game toppled = new Game(size, 3, false);
+            Game thin = new Game(size, false);
+            while (toppled.winner() == 0) {
+                int x = random.nextInt(size), y = random.nextInt(size);
+                int team = toppled.turn();
+                if (!toppled.isValidMove(x, y, team)) {
+                    continue;
+                }
+                boolean won = toppled.play(x, y);
+                assertEquals(won, thin.apply(Diff.encode(toppled.board()), team));
+                assertEquals(toppled.board().hash, thin.board().hash, "size " + size);
+                int[] expected = toppled.board().copyChanged();
+                int[] actual = thin.board().copyChanged();
+                Arrays.sort(expected);
+                Arrays.sort(actual);
+                assertArrayEquals(expected, actual); // guests draw deltas from the changed list
+            }
+            WavefrontCascadeTest.assertSame(toppled.board(), thin.board(), "size " + size);
+        }
+    }
+    @Test
+    void rejectsDiffsThatLeaveTheBoard() {
+        Board board = new Board(4);
+        assertThrows(IOException.class, () -> Diff.apply(new byte[]{1, 16, 2}, board, 1)); // cell 16 of 16
+        assertThrows(IOException.class, () -> Diff.apply(new byte[]{2, 3, 2}, board, 1)); // second cell missing
+        assertThrows(IOException.class, () -> Diff.apply(new byte[]{1, 3}, board, 1)); // value missing
+    }
+}
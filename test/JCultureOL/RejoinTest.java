@@ -0,0 +1,168 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * a guest that drops out of a {@link HostLoop} loses its turns while away, and comes back to its seat and the current board with its token inside the grace period, not with any other token or after it
+ */
+class RejoinTest {
+    private static final int SIZE = 8;
+    private static final int FEATURES = Lobby.FEATURE_HASH | Lobby.FEATURE_RESUME;
+
+    private ServerSocketChannel server;
+    private EventLoop events;
+    private Thread running;
+    private final Game game = new Game(SIZE, false);
+    private final LinkedBlockingQueue<Long> hostMoves = new LinkedBlockingQueue<>();
+    private HostLoop loop;
+    private Guest a, b; // teams 2 and 3
+
+    /**
+     * the test's end of a guest connection and the host's end of it
+     */
+    private record Guest(Socket socket, DataInputStream in, DataOutputStream out, SocketChannel seat) {}
+
+    @BeforeEach
+    void open() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        events = new EventLoop();
+        running = new Thread(() -> {
+            try {
+                events.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        running.start();
+        a = connect();
+        b = connect();
+    }
+    @AfterEach
+    void close() throws Exception {
+        events.stop();
+        running.join(5000);
+        a.socket().close();
+        b.socket().close();
+        server.close();
+    }
+    /**
+     * starts the game, the host moves and team 2 drops out on the turn it was given
+     * @param grace seconds the seat is held
+     */
+    private void dropOnItsTurn(int grace) throws IOException {
+        loop = new HostLoop(new HostLoop.Table() {
+            @Override
+            public Game game() {
+                return game;
+            }
+            @Override
+            public Color[] colors() {
+                return JCultureOL.colors;
+            }
+            @Override
+            public long nextMove(int players) throws InterruptedException {
+                assertEquals(3, players);
+                return hostMoves.take();
+            }
+            @Override
+            public void move(int x, int y, int team) {}
+            @Override
+            public void message(String text) {}
+            @Override
+            public void winner(int team) {}
+        }, new Lobby.Guest[]{new Lobby.Guest(a.seat(), FEATURES, 11), new Lobby.Guest(b.seat(), FEATURES, 12)}, events, false, null, null, grace);
+        assertArrayEquals(new long[]{11, 12}, loop.tokens());
+        loop.start();
+        hostMoves.add(move(0, 0));
+        expectFrame(a, 0, 0, 1, true);
+        expectFrame(b, 0, 0, 1, false);
+        a.socket().close();
+        assertEquals(0x05, b.in().read(), "the turn passes over the guest that left");
+    }
+    @Test
+    void aGuestBackInTimeGetsItsSeatAndTheBoard() throws Exception {
+        dropOnItsTurn(60);
+        play(b, 7, 7);
+        expectFrame(b, 7, 7, 3, false);
+        hostMoves.add(move(1, 1));
+        expectFrame(b, 1, 1, 1, true); // team 2 is still away and is passed over again
+
+        Guest stranger = connect();
+        loop.rejoin(stranger.seat(), 13, FEATURES);
+        assertEquals(0x00, stranger.in().read());
+        assertEquals(-1, stranger.in().read());
+        stranger.socket().close();
+
+        Guest back = connect();
+        loop.rejoin(back.seat(), 11, FEATURES);
+        assertEquals(0x01, back.in().read());
+        assertEquals(2, back.in().readInt());
+        assertEquals(SIZE, back.in().readInt());
+        assertEquals(JCultureOL.colors.length - 8, back.in().readInt());
+        back.in().skipNBytes(3L * (JCultureOL.colors.length - 8));
+        assertEquals(0x00, back.in().read(), "it is team 3's turn");
+        Board seen = new Board(SIZE);
+        Snapshot.decode(back.in().readNBytes(back.in().readInt()), seen);
+        Game expected = new Game(SIZE, false);
+        expected.apply(0, 0, 1);
+        expected.apply(7, 7, 3);
+        expected.apply(1, 1, 1);
+        WavefrontCascadeTest.assertSame(expected.board(), seen, "board sent on rejoin");
+
+        play(b, 6, 6);
+        expectFrame(b, 6, 6, 3, false);
+        expectFrame(back, 6, 6, 3, false);
+        hostMoves.add(move(2, 2));
+        expectFrame(back, 2, 2, 1, true); // in the turn order again
+        back.socket().close();
+    }
+    @Test
+    void aGuestBackAfterTheGracePeriodIsRefused() throws Exception {
+        dropOnItsTurn(0);
+        Thread.sleep(20);
+        Guest late = connect();
+        loop.rejoin(late.seat(), 11, FEATURES);
+        assertEquals(0x00, late.in().read());
+        assertEquals(-1, late.in().read());
+        late.socket().close();
+    }
+    private Guest connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(server.getLocalAddress());
+        socket.setSoTimeout(5000);
+        return new Guest(socket, new DataInputStream(socket.getInputStream()), new DataOutputStream(socket.getOutputStream()), server.accept());
+    }
+    private static long move(int x, int y) {
+        return (((long)y)<<32)|((long)x);
+    }
+    /**
+     * sends a move on the guest's turn and checks it was taken
+     */
+    private static void play(Guest guest, int x, int y) throws IOException {
+        guest.out().writeInt(y);
+        guest.out().writeInt(x);
+        assertEquals(0x01, guest.in().read());
+    }
+    private void expectFrame(Guest guest, int x, int y, int team, boolean turn) throws IOException {
+        assertEquals(0x02, guest.in().read());
+        assertEquals(x, guest.in().readInt());
+        assertEquals(y, guest.in().readInt());
+        assertEquals(team, guest.in().readInt());
+        assertEquals(turn ? 0x01 : 0x00, guest.in().read(), "turn flag");
+        guest.in().readLong(); // hash
+    }
+}
@@ -0,0 +1,98 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * seeking a {@link GameLog} must give the board the game had after that many moves, whichever checkpoint it starts from
+ */
+class ReplayTest {
+    private static final int SIZE = 20;
+
+    @TempDir
+    static Path dir;
+    private static Path file;
+    private static final ArrayList<Long> hashes = new ArrayList<>(); // hash after each number of moves, from 0
+    private static final ArrayList<Replay.Move> moves = new ArrayList<>();
+    private static final ArrayList<byte[]> boards = new ArrayList<>(); // snapshot after each number of moves
+    private static Color[] colors;
+
+    @BeforeAll
+    static void record() throws IOException {
+        file = dir.resolve("game.jcol");
+        colors = Arrays.copyOf(JCultureOL.colors, 10);
+        colors[8] = new FullColor(1, 2, 3);
+        colors[9] = new FullColor(200, 150, 100);
+        Random random = new Random(22);
+        Game game = new Game(SIZE, 2, false);
+        hashes.add(0L);
+        boards.add(Snapshot.encode(game.board()));
+        try (GameLog log = new GameLog(file, SIZE, colors)) {
+            while (game.winner() == 0 && moves.size() < GameLog.CHECKPOINT_EVERY * 4 + 10) {
+                int x = random.nextInt(SIZE), y = random.nextInt(SIZE), team = game.turn();
+                if (game.isValidMove(x, y, team)) {
+                    game.play(x, y);
+                    log.move(x, y, team, game.board());
+                    moves.add(new Replay.Move(x, y, team));
+                    hashes.add(game.board().hash);
+                    boards.add(Snapshot.encode(game.board()));
+                }
+            }
+        }
+    }
+    @Test
+    void readsTheHeaderAndCountsTheRecords() throws IOException {
+        Replay replay = new Replay(file);
+        assertEquals(SIZE, replay.size());
+        assertEquals(moves.size(), replay.moves());
+        assertEquals(moves.size() / GameLog.CHECKPOINT_EVERY, replay.checkpoints());
+        assertArrayEquals(SpectatorHub.rgb(colors), replay.rgb());
+    }
+    @Test
+    void seeksToEveryMoveAcrossCheckpoints() throws IOException {
+        assertTrue(moves.size() > GameLog.CHECKPOINT_EVERY * 4, "the game should outlast four checkpoints");
+        Replay replay = new Replay(file);
+        Game game = new Game(SIZE, false);
+        for (int n = moves.size(); n >= 0; n --) { // backwards, so every seek starts from a board further along
+            Replay.Move last = replay.seek(game, n);
+            assertEquals(hashes.get(n), game.board().hash, "move " + n);
+            assertEquals(n == 0 ? null : moves.get(n - 1), last);
+            if (n % GameLog.CHECKPOINT_EVERY <= 1 || n % GameLog.CHECKPOINT_EVERY == GameLog.CHECKPOINT_EVERY - 1) { // on either side of a checkpoint
+                assertArrayEquals(boards.get(n), Snapshot.encode(game.board()), "move " + n);
+            }
+        }
+        assertNull(replay.seek(game, 0));
+        assertThrows(IllegalArgumentException.class, () -> replay.seek(game, -1));
+        assertThrows(IllegalArgumentException.class, () -> replay.seek(game, moves.size() + 1));
+    }
+    @Test
+    void readsALogCutShortUpToItsLastCompleteRecord() throws IOException {
+        byte[] whole = Files.readAllBytes(file);
+        Path cut = dir.resolve("cut.jcol");
+        Files.write(cut, Arrays.copyOf(whole, whole.length - 1)); // the last move loses its team
+        Replay replay = new Replay(cut);
+        assertEquals(moves.size() - 1, replay.moves());
+        Game game = new Game(SIZE, false);
+        replay.seek(game, replay.moves());
+        assertEquals(hashes.get(replay.moves()), game.board().hash);
+    }
+    @Test
+    void rejectsFilesThatAreNotGameLogs() throws IOException {
+        Path other = dir.resolve("other.jcol");
+        Files.write(other, "not a game log at all".getBytes());
+        assertThrows(IOException.class, () -> new Replay(other));
+    }
+}
@@ -0,0 +1,148 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import org.junit.jupiter.api.Test;
+
+/**
+ * guests of several rooms on one port come back to their own room by token, and a room's tokens are forgotten once it ends
+ */
+class RoomServerTest {
+    private static final int SIZE = 6;
+
+    /**
+     * a guest of one room and the board as it has followed it
+     */
+    private static final class Guest {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final long token;
+        final Game game = new Game(SIZE, false);
+        boolean turn;
+
+        Guest(int port) throws Exception {
+            socket = connect(port);
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(socket.getOutputStream());
+            out.write(Lobby.FEATURE_RESUME);
+            assertEquals(0x01, in.read());
+            assertEquals(2, in.readInt(), "every room seats its one guest as team 2");
+            assertEquals(SIZE, in.readInt());
+            in.skipNBytes(3L * in.readInt());
+            token = in.readLong();
+            for (int code; (code = in.read()) != 0x02; ) { // guests seated before the start, none with one guest a room
+                assertEquals(0x01, code);
+                in.skipNBytes(3);
+            }
+        }
+        /**
+         * reads move frames up to the guest's turn
+         */
+        void awaitTurn() throws IOException {
+            while (!turn) {
+                assertEquals(0x02, in.read());
+                int x = in.readInt(), y = in.readInt(), team = in.readInt();
+                turn = in.read() == 0x01;
+                game.apply(x, y, team);
+            }
+        }
+        void play() throws Exception {
+            long move = new RandomMoves().nextMove(game.board(), 2);
+            out.writeInt((int)(move >> 32));
+            out.writeInt((int)move);
+            assertEquals(0x01, in.read());
+            turn = false;
+        }
+    }
+
+    @Test
+    void rejoiningGuestsReachTheirOwnRoom() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        RoomServer server = new RoomServer(port, SIZE, 1, 0, "random", 60, 2, false);
+        Thread.ofPlatform().daemon().start(() -> {
+            try {
+                server.run(); // never returns, the test process ends it
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        Guest a = new Guest(port);
+        a.awaitTurn();
+        a.play(); // so the rooms' boards differ
+        a.awaitTurn();
+        Guest b = new Guest(port);
+        b.awaitTurn();
+        assertNotEquals(a.token, b.token);
+        assertEquals(2, server.routed());
+
+        Socket backA = rejoin(port, a.token, a.game.board());
+        Socket backB = rejoin(port, b.token, b.game.board());
+        refused(port, a.token ^ b.token ^ 1);
+
+        a.socket.close();
+        b.socket.close();
+        backA.close(); // the house plays on alone until it owns the board
+        backB.close();
+        long deadline = System.currentTimeMillis() + 20000;
+        while (server.routed() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, server.routed(), "ended rooms are forgotten");
+        refused(port, a.token);
+    }
+    /**
+     * comes back with a token and checks the board sent is the one the guest had
+     * @return the new connection
+     */
+    private static Socket rejoin(int port, long token, Board board) throws Exception {
+        Socket socket = connect(port);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.write(Lobby.REJOIN | Lobby.FEATURE_RESUME);
+        out.writeLong(token);
+        assertEquals(0x01, in.read());
+        assertEquals(2, in.readInt());
+        assertEquals(SIZE, in.readInt());
+        in.skipNBytes(3L * in.readInt());
+        assertEquals(0x01, in.read(), "it was the guest's turn when it left");
+        Board seen = new Board(SIZE);
+        Snapshot.decode(in.readNBytes(in.readInt()), seen);
+        WavefrontCascadeTest.assertSame(board, seen, "board of the room token " + token + " belongs to");
+        return socket;
+    }
+    private static void refused(int port, long token) throws Exception {
+        try (Socket socket = connect(port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write(Lobby.REJOIN | Lobby.FEATURE_RESUME);
+            out.writeLong(token);
+            assertEquals(0x00, socket.getInputStream().read());
+        }
+    }
+    /**
+     * connects once the server has started listening
+     */
+    private static Socket connect(int port) throws Exception {
+        for (int tries = 0; ; tries ++) {
+            try {
+                Socket socket = new Socket("127.0.0.1", port);
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch (IOException e) {
+                if (tries == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class ScriptedMovesTest {
+    private static ScriptedMoves script(String text) {
+        return new ScriptedMoves(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), "test");
+    }
+    private static long move(int x, int y) {
+        return (((long)y)<<32)|((long)x);
+    }
+    @Test
+    void readsMovesInEveryAcceptedForm() throws IOException {
+        ScriptedMoves moves = script("1, 2\n3 4\r\n\n# a comment\n  5\t,6  # trailing comment\n7,0");
+        Board board = new Board(8);
+        assertEquals(move(1, 2), moves.nextMove(board, 1));
+        assertEquals(move(3, 4), moves.nextMove(board, 1));
+        assertEquals(move(5, 6), moves.nextMove(board, 1));
+        assertEquals(move(7, 0), moves.nextMove(board, 1));
+        assertThrows(EOFException.class, () -> moves.nextMove(board, 1));
+    }
+    @Test
+    void skipsMovesThatAreNotValidWhenTheyComeUp() throws IOException {
+        Board board = new Board(4);
+        new Cascade(board).run(0, 0, 2);
+        ScriptedMoves moves = script("0, 0\n9, 9\n1, 1\n");
+        assertEquals(move(1, 1), moves.nextMove(board, 1)); // 0, 0 belongs to team 2 and 9, 9 is off the board
+    }
+    @Test
+    void rejectsMalformedLinesWithTheirLineNumber() {
+        Board board = new Board(8);
+        for (String bad : new String[]{"1\n", "x, 2\n", "1, 2, 3\n", "99999999999, 1\n", "-1, 2\n"}) {
+            ScriptedMoves moves = script("# header\n" + bad);
+            IOException e = assertThrows(IOException.class, () -> moves.nextMove(board, 1), bad);
+            assertTrue(e.getMessage().startsWith("test:2:"), e.getMessage());
+        }
+    }
+    @Test
+    void readsWholeLinesForPrompts() throws IOException {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 70000; i ++) { // longer than the read buffer
+            longLine.append((char)('a' + i % 26));
+        }
+        ScriptedMoves lines = script("y\r\n\n" + longLine + "\n2, 3\n");
+        assertEquals("y", lines.nextLine());
+        assertEquals("", lines.nextLine());
+        assertEquals(longLine.toString(), lines.nextLine());
+        assertEquals(move(2, 3), lines.nextMove(new Board(8), 1)); // prompts and moves share one reader
+        assertNull(lines.nextLine());
+    }
+    @Test
+    void sharesOneReaderForStdin() throws IOException {
+        assertSame(ScriptedMoves.stdin(), MoveSource.parse("-"));
+        assertThrows(IOException.class, () -> MoveSource.parse("no/such/script.txt"));
+    }
+}
@@ -0,0 +1,69 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SnapshotTest {
+    /**
+     * @return a board after a number of random valid moves
+     */
+    static Game played(int size, int teams, int moves, long seed) {
+        Random random = new Random(seed);
+        Game game = new Game(size, teams, false);
+        for (int m = 0; m < moves && game.winner() == 0; ) {
+            int x = random.nextInt(size), y = random.nextInt(size);
+            if (game.isValidMove(x, y, game.turn())) {
+                game.play(x, y);
+                m ++;
+            }
+        }
+        return game;
+    }
+    @Test
+    void decodesToTheEncodedBoard() throws IOException {
+        for (int moves : new int[]{0, 1, 40, 400}) {
+            Board board = played(16, 3, moves, moves).board();
+            Board decoded = played(16, 2, 100, 7).board(); // overwritten entirely, counts included
+            Snapshot.decode(Snapshot.encode(board), decoded);
+            WavefrontCascadeTest.assertSame(board, decoded, moves + " moves");
+            assertEquals(Zobrist.of(board), decoded.hash);
+            assertArrayEquals(Snapshot.encode(board), Snapshot.encode(decoded));
+        }
+    }
+    @Test
+    void encodesAnEmptyBoardAsOneRun() {
+        assertEquals(4, Snapshot.encode(new Board(100)).length); // run of 10000 as two bytes, team 0, value 1
+    }
+    @Test
+    void rejectsMalformedSnapshots() throws IOException {
+        Board board = new Board(4);
+        byte[] good = Snapshot.encode(played(4, 2, 10, 3).board());
+        assertThrows(IOException.class, () -> Snapshot.decode(Arrays.copyOf(good, good.length - 1), board)); // cut inside the last run
+        assertThrows(IOException.class, () -> Snapshot.decode(new byte[]{10, 0, 1}, board)); // 10 of 16 cells
+        assertThrows(IOException.class, () -> Snapshot.decode(new byte[]{17, 0, 1}, board)); // more cells than the board
+        assertThrows(IOException.class, () -> Snapshot.decode(new byte[]{0, 0, 1}, board)); // empty run
+        assertThrows(IOException.class, () -> Snapshot.decode(new byte[]{(byte)0x90, (byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, 0x01, 0, 1}, board)); // varint longer than an int
+    }
+    @Test
+    void varintsRoundTrip() throws IOException {
+        int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int v : values) {
+            Snapshot.varint(out, v);
+        }
+        byte[] data = out.toByteArray();
+        int[] at = {0};
+        for (int v : values) {
+            assertEquals(v, Snapshot.varint(data, at));
+        }
+        assertEquals(data.length, at[0]);
+        assertThrows(IOException.class, () -> Snapshot.varint(new byte[]{(byte)0x80}, new int[]{0}));
+    }
+}
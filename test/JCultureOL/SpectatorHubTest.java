@@ -0,0 +1,224 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * a spectator that stops reading must be skipped ahead to one snapshot, dropped if it falls behind again before taking it, and never hold up the moves fed to the hub
+ */
+class SpectatorHubTest {
+    private static final int SIZE = 100; // every move rewrites the whole board, about 20k of diff, so the lag limit is passed in a few moves
+
+    private SpectatorHub hub;
+    private final Board mirror = new Board(SIZE); // the board the hub should have
+    private Socket stalled; // takes diff frames and stops reading after the welcome
+    private Socket reader; // takes plain frames and reads every one, once it has a move the hub has handled it
+    private DataInputStream fromReader;
+
+    private record Frame(int code, int x, byte[] data) {}
+
+    @BeforeEach
+    void open() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        hub = new SpectatorHub(server, SIZE, new byte[0], null);
+        stalled = new Socket();
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(server.getLocalAddress());
+        stalled.getOutputStream().write(Lobby.FEATURE_SPECTATE | Lobby.FEATURE_DIFF);
+        assertEquals(0x01, read(new DataInputStream(stalled.getInputStream())).code()); // welcomed, so it is queued every move from here on
+        reader = new Socket();
+        reader.connect(server.getLocalAddress());
+        reader.getOutputStream().write(Lobby.FEATURE_SPECTATE);
+        fromReader = new DataInputStream(reader.getInputStream());
+        assertEquals(0x01, read(fromReader).code());
+        assertEquals(0x03, read(fromReader).code());
+    }
+    @AfterEach
+    void close() throws IOException {
+        stalled.close();
+        reader.close();
+        hub.close();
+    }
+    @Test
+    void aStalledSpectatorIsSkippedAheadToOneSnapshot() throws IOException {
+        int fed = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> feedUntil(0, "1 skipped ahead"));
+        DataInputStream in = new DataInputStream(stalled.getInputStream());
+        stalled.setSoTimeout(5000);
+        assertEquals(0x03, read(in).code()); // the snapshot it joined with
+        int last = -1;
+        Frame frame;
+        while ((frame = read(in)).code() == 0x04) {
+            assertEquals(last + 1, frame.x(), "moves before the skip arrive in order");
+            last = frame.x();
+        }
+        assertEquals(0x03, frame.code());
+        assertTrue(last < fed - 1, "queued moves are replaced by the snapshot");
+        Board seen = new Board(SIZE);
+        Snapshot.decode(frame.data(), seen);
+        assertEquals(mirror.hash, seen.hash);
+        stalled.setSoTimeout(300);
+        assertThrows(SocketTimeoutException.class, () -> in.read(), "nothing follows the snapshot until the next move");
+        assertTrue(hub.stats().endsWith("1 skipped ahead, 0 dropped"), hub.stats());
+    }
+    @Test
+    void aSpectatorStillBehindAfterItsSkipIsDropped() throws IOException {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> feedUntil(feedUntil(0, "1 skipped ahead"), "1 dropped"));
+        assertTrue(hub.stats().endsWith("1 skipped ahead, 1 dropped"), hub.stats());
+        stalled.setSoTimeout(5000);
+        try {
+            while (stalled.getInputStream().read(new byte[65536]) != -1) {} // what was in flight, then the end of the stream
+        } catch (SocketException e) {} // or a reset, as the hub closed it with data unread
+    }
+    @Test
+    void aRelayAsksUpstreamForTheBoardWhenAMoveHashesWrong() throws Exception {
+        int listen;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            listen = probe.getLocalPort();
+        }
+        try (ServerSocket upstream = new ServerSocket(0, 1, null)) {
+            Relay relay = new Relay("127.0.0.1", upstream.getLocalPort(), listen);
+            Thread relaying = new Thread(() -> {
+                try {
+                    relay.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            relaying.start();
+            try (Socket host = upstream.accept()) {
+                DataInputStream fromRelay = new DataInputStream(host.getInputStream());
+                DataOutputStream toRelay = new DataOutputStream(host.getOutputStream());
+                assertEquals(Lobby.FEATURE_SPECTATE | Lobby.FEATURE_DIFF, fromRelay.read());
+                toRelay.write(0x01);
+                toRelay.writeInt(SIZE);
+                toRelay.writeInt(0);
+                toRelay.flush();
+                try (Socket spectator = connect(listen)) {
+                    spectator.getOutputStream().write(Lobby.FEATURE_SPECTATE);
+                    DataInputStream in = new DataInputStream(spectator.getInputStream());
+                    assertEquals(0x01, read(in).code());
+                    assertEquals(0x03, read(in).code());
+                    byte[] diff = fill(5);
+                    Diff.apply(diff, mirror, 2);
+                    toRelay.write(0x04);
+                    toRelay.writeInt(7);
+                    toRelay.writeInt(0);
+                    toRelay.writeInt(2);
+                    toRelay.write(0x00);
+                    toRelay.writeLong(mirror.hash ^ 1); // not the board the relay ends up with
+                    toRelay.writeInt(diff.length);
+                    toRelay.write(diff);
+                    toRelay.flush();
+                    host.setSoTimeout(5000);
+                    assertEquals(HostLoop.RESYNC, fromRelay.readLong());
+                    byte[] snapshot = Snapshot.encode(mirror);
+                    toRelay.write(0x03);
+                    toRelay.writeInt(snapshot.length);
+                    toRelay.write(snapshot);
+                    toRelay.flush();
+                    spectator.setSoTimeout(5000);
+                    Frame frame;
+                    while ((frame = read(in)).code() != 0x03) {
+                        assertEquals(7, frame.x()); // the move itself, unless the reset overtook it
+                    }
+                    Board seen = new Board(SIZE);
+                    Snapshot.decode(frame.data(), seen);
+                    assertEquals(mirror.hash, seen.hash);
+                }
+            }
+            relaying.join(10000);
+            assertFalse(relaying.isAlive(), "the relay stops once upstream is gone");
+        }
+    }
+    /**
+     * hands the hub moves that rewrite the whole board until its stats show the text
+     * @return the number of the next move
+     */
+    private int feedUntil(int from, String stats) throws IOException {
+        for (int k = from; k < from + 1000; k ++) {
+            int team = k % 2 + 1;
+            byte[] diff = fill(k % 3 + 1);
+            Diff.apply(diff, mirror, team);
+            hub.move(k, 0, team, diff, mirror.hash);
+            Frame frame = read(fromReader);
+            assertEquals(0x02, frame.code());
+            assertEquals(k, frame.x(), "the spectator that keeps up gets every move");
+            if (hub.stats().contains(stats)) {
+                return k + 1;
+            }
+        }
+        fail("the hub never reported " + stats + ", it reported " + hub.stats());
+        return -1;
+    }
+    /**
+     * @return a diff setting every cell to the value
+     */
+    private static byte[] fill(int value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshot.varint(out, SIZE * SIZE);
+        for (int i = 0; i < SIZE * SIZE; i ++) {
+            Snapshot.varint(out, i == 0 ? 0 : 1);
+            out.write(value);
+        }
+        return out.toByteArray();
+    }
+    private static Frame read(DataInputStream in) throws IOException {
+        int code = in.read();
+        if (code == -1) {
+            throw new EOFException();
+        }
+        if (code == 0x01) {
+            int size = in.readInt();
+            in.readNBytes(3 * in.readInt());
+            return new Frame(code, size, null);
+        }
+        if (code == 0x03) {
+            return new Frame(code, 0, in.readNBytes(in.readInt()));
+        }
+        if (code == 0x02 || code == 0x04) {
+            int x = in.readInt();
+            in.readInt(); // y
+            in.readInt(); // team
+            in.read(); // turn flag
+            in.readLong(); // hash
+            return new Frame(code, x, code == 0x04 ? in.readNBytes(in.readInt()) : null);
+        }
+        throw new IOException("unexpected frame " + code);
+    }
+    /**
+     * connects once the relay has started listening
+     */
+    private static Socket connect(int port) throws Exception {
+        for (int tries = 0; ; tries ++) {
+            try {
+                return new Socket("127.0.0.1", port);
+            } catch (IOException e) {
+                if (tries == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
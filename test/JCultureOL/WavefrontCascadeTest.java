@@ -0,0 +1,90 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * the wavefront engine must leave every move, the conquering one included, on the same board as the depth first {@link Cascade}, the hashes are compared after every move and the cells every so often
+ */
+class WavefrontCascadeTest {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    static void shutdown() {
+        POOL.shutdown();
+    }
+    @Test
+    void settlesLikeTheDepthFirstCascade() {
+        for (int size : new int[]{1, 2, 65, 130}) {
+            play(size, 3, new Random(size));
+        }
+    }
+    @Test
+    void settlesLikeTheDepthFirstCascadeOnOneCrowdedCorner() {
+        Board sequential = new Board(130);
+        Board wavefront = new Board(130);
+        Cascade cascade = new Cascade(sequential);
+        WavefrontCascade waves = new WavefrontCascade(wavefront, POOL);
+        for (int m = 0; m < 4000; m ++) { // one team piling onto few cells sets off long cascades across the bands
+            int x = m % 7, y = m % 5;
+            assertEquals(cascade.run(x, y, 1), waves.run(x, y, 1));
+            if (sequential.ownsAll(1)) {
+                assertSame(sequential, wavefront, "conquering move " + m);
+                assertEquals(cascade.topples(), waves.topples());
+                return;
+            }
+            assertEquals(sequential.hash, wavefront.hash, "move " + m);
+            if (m % 64 == 0) {
+                assertSame(sequential, wavefront, "move " + m);
+            }
+        }
+    }
+    /**
+     * plays random valid moves on both engines until a team wins, comparing the boards after every move
+     */
+    private static void play(int size, int teams, Random random) {
+        Board sequential = new Board(size);
+        Board wavefront = new Board(size);
+        Cascade cascade = new Cascade(sequential);
+        WavefrontCascade waves = new WavefrontCascade(wavefront, POOL);
+        for (int m = 0; m < 30000; m ++) {
+            int team = m % teams + 1;
+            int x, y;
+            do {
+                x = random.nextInt(size);
+                y = random.nextInt(size);
+            } while (!Game.isValidMove(sequential, x, y, team));
+            boolean won = cascade.run(x, y, team);
+            assertEquals(won, waves.run(x, y, team), "size " + size + " move " + m);
+            if (won) {
+                assertSame(sequential, wavefront, "size " + size + " conquering move " + m);
+                assertArrayEquals(sorted(sequential.copyChanged()), sorted(wavefront.copyChanged()));
+                return;
+            }
+            assertEquals(sequential.hash, wavefront.hash, "size " + size + " move " + m);
+            if (m % 64 == 0) {
+                assertSame(sequential, wavefront, "size " + size + " move " + m);
+            }
+        }
+    }
+    private static int[] sorted(int[] cells) {
+        Arrays.sort(cells);
+        return cells;
+    }
+    static void assertSame(Board expected, Board actual, String where) {
+        for (int i = 0; i < expected.cells; i ++) {
+            assertEquals(expected.team(i), actual.team(i), where + " cell " + i);
+            assertEquals(expected.value(i), actual.value(i), where + " cell " + i);
+        }
+        assertEquals(expected.hash, actual.hash, where);
+        for (int t = 0; t < Math.max(expected.teamSlots(), actual.teamSlots()); t ++) {
+            assertEquals(expected.owned(t), actual.owned(t), where + " team " + t);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package JCultureOL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * the hash the topple engines keep up to date must always equal one computed from scratch
+ */
+class ZobristTest {
+    @Test
+    void incrementalHashMatchesAFullRecompute() {
+        Random random = new Random(18);
+        for (int size : new int[]{1, 3, 8, 24}) {
+            for (int teams = 2; teams <= 4; teams ++) {
+                Game game = new Game(size, teams, false);
+                assertEquals(0, game.board().hash);
+                while (game.winner() == 0) {
+                    int x = random.nextInt(size), y = random.nextInt(size);
+                    if (game.isValidMove(x, y, game.turn())) {
+                        game.play(x, y);
+                        assertEquals(Zobrist.of(game.board()), game.board().hash, "size " + size);
+                    }
+                }
+            }
+        }
+    }
+    @Test
+    void equalPositionsHashAlikeWhateverTheMoveOrder() {
+        Game first = new Game(8, false);
+        Game second = new Game(8, false);
+        first.apply(1, 1, 1);
+        first.apply(6, 6, 2);
+        second.apply(6, 6, 2);
+        second.apply(1, 1, 1);
+        assertEquals(first.board().hash, second.board().hash);
+        second.apply(1, 1, 1);
+        assertNotEquals(first.board().hash, second.board().hash);
+    }
+    @Test
+    void copiesAndResetsKeepTheHash() {
+        Game game = new Game(6, 2, false);
+        game.play(2, 2);
+        game.play(3, 3);
+        Game copy = game.copy();
+        assertEquals(game.board().hash, copy.board().hash);
+        Game other = new Game(6, 2, false);
+        other.copyFrom(game);
+        assertEquals(game.board().hash, other.board().hash);
+        game.reset();
+        assertEquals(0, game.board().hash);
+        assertEquals(0, Zobrist.of(game.board()));
+    }
+    @Test
+    void tableFindsWhatWasStoredUnderTheHash() {
+        TranspositionTable<String> table = new TranspositionTable<>(64);
+        Game game = new Game(8, false);
+        game.apply(4, 4, 1);
+        long hash = game.board().hash;
+        table.put(hash, "after 4, 4", 1);
+        assertEquals("after 4, 4", table.get(hash));
+        assertNull(table.get(hash ^ 1));
+    }
+}